@@ -0,0 +1,95 @@
+package javax.database.sqlite.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.database.sqlite.ContentValues;
+import javax.database.sqlite.SQLiteDatabase;
+
+/**
+ * Datos reproducibles para los benchmarks: la misma semilla genera siempre
+ * las mismas filas.
+ */
+final class BenchData {
+
+  static final long SEED = 42L;
+  static final String TABLE = "items";
+  static final String MEMORY = "memory";
+  static final String FILE = "file";
+
+  private BenchData() {
+  }
+
+  /**
+   * Abre una base de datos vacía con la tabla de prueba.
+   *
+   * @param storage {@link #MEMORY} o {@link #FILE}
+   * @param file archivo temporal a usar si <code>storage</code> es FILE
+   */
+  static SQLiteDatabase open(String storage, File file) throws SQLException {
+    String url = MEMORY.equals(storage)
+            ? "jdbc:sqlite::memory:" : "jdbc:sqlite:" + file.getPath();
+    SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection(url));
+    db.execSQL("CREATE TABLE " + TABLE + " ("
+            + "id INTEGER PRIMARY KEY, "
+            + "sku TEXT NOT NULL UNIQUE, "
+            + "name TEXT, "
+            + "price REAL, "
+            + "stock INTEGER)");
+    return db;
+  }
+
+  static File tempFile() throws IOException {
+    File file = File.createTempFile("sqlite-bench", ".db");
+    file.delete();
+    return file;
+  }
+
+  static void delete(File file) {
+    if (file == null) return;
+    file.delete();
+    new File(file.getPath() + "-journal").delete();
+    new File(file.getPath() + "-wal").delete();
+    new File(file.getPath() + "-shm").delete();
+  }
+
+  /** Fila con el sku <code>"sku-" + n</code> y el resto de valores al azar. */
+  static Map<String, Object> row(Random random, long n) {
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("sku", "sku-" + n);
+    row.put("name", "item " + Long.toString(random.nextLong() & 0xffffffL, 36));
+    row.put("price", Math.round(random.nextDouble() * 100000) / 100.0);
+    row.put("stock", random.nextInt(1000));
+    return row;
+  }
+
+  /** Igual que {@link #row(Random, long)} reutilizando <code>values</code>. */
+  static ContentValues row(Random random, long n, ContentValues values) {
+    values.clear();
+    values.put("sku", "sku-" + n);
+    values.put("name", "item " + Long.toString(random.nextLong() & 0xffffffL, 36));
+    values.put("price", Math.round(random.nextDouble() * 100000) / 100.0);
+    values.put("stock", random.nextInt(1000));
+    return values;
+  }
+
+  /** Filas con skus consecutivos desde <code>first</code>. */
+  static List<Map<String, Object>> rows(Random random, long first, int count) {
+    List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(count);
+    for (int i = 0; i < count; i++) {
+      rows.add(row(random, first + i));
+    }
+    return rows;
+  }
+
+  /** Llena la tabla con <code>count</code> filas. */
+  static void fill(SQLiteDatabase db, int count) throws SQLException {
+    db.insertAll(TABLE, rows(new Random(SEED), 0, count), "");
+  }
+}
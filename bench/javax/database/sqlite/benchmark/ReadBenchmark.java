@@ -0,0 +1,119 @@
+package javax.database.sqlite.benchmark;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.database.sqlite.CompiledQuery;
+import javax.database.sqlite.QueryBuilder;
+import javax.database.sqlite.SQLiteDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lecturas: query con y sin parámetros, construcción de queries con
+ * {@link QueryBuilder} y lectura de columnas por nombre y por índice.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadBenchmark {
+
+  static final int ROWS = 10000;
+  static final int SCAN = 100;
+
+  @Param({BenchData.MEMORY, BenchData.FILE})
+  public String storage;
+
+  private File file;
+  private SQLiteDatabase db;
+  private Random random;
+  private CompiledQuery compiled;
+
+  @Setup public void setUp() throws Exception {
+    file = BenchData.tempFile();
+    db = BenchData.open(storage, file);
+    BenchData.fill(db, ROWS);
+    random = new Random(BenchData.SEED);
+    compiled = builder(0).compile();
+  }
+
+  @TearDown public void tearDown() {
+    db.close();
+    BenchData.delete(file);
+  }
+
+  private long id() {
+    return 1 + random.nextInt(ROWS);
+  }
+
+  private static QueryBuilder builder(long id) {
+    return new QueryBuilder()
+            .select("id", "sku", "name", "price", "stock")
+            .from(BenchData.TABLE)
+            .where().clause("id", "=", id).endWhere();
+  }
+
+  @Benchmark public String queryLiteral() throws SQLException {
+    try (ResultSet rs = db.query("SELECT sku FROM items WHERE id = " + id())) {
+      return rs.next() ? rs.getString(1) : null;
+    }
+  }
+
+  @Benchmark public String queryBind() throws SQLException {
+    try (ResultSet rs = db.query("SELECT sku FROM items WHERE id = ?", id())) {
+      return rs.next() ? rs.getString(1) : null;
+    }
+  }
+
+  @Benchmark public String queryBuilderToString() {
+    return builder(id()).toString();
+  }
+
+  @Benchmark public String queryBuilderGet() throws SQLException {
+    try (ResultSet rs = builder(id()).get(db)) {
+      return rs.next() ? rs.getString(2) : null;
+    }
+  }
+
+  @Benchmark public String compiledQuery() throws SQLException {
+    try (ResultSet rs = compiled.query(db, id())) {
+      return rs.next() ? rs.getString(2) : null;
+    }
+  }
+
+  @Benchmark public void getByLabel(Blackhole bh) throws SQLException {
+    try (ResultSet rs = db.query(
+            "SELECT id, sku, name, price, stock FROM items LIMIT ?", SCAN)) {
+      while (rs.next()) {
+        bh.consume(rs.getLong("id"));
+        bh.consume(rs.getString("sku"));
+        bh.consume(rs.getString("name"));
+        bh.consume(rs.getDouble("price"));
+        bh.consume(rs.getInt("stock"));
+      }
+    }
+  }
+
+  @Benchmark public void getByIndex(Blackhole bh) throws SQLException {
+    try (ResultSet rs = db.query(
+            "SELECT id, sku, name, price, stock FROM items LIMIT ?", SCAN)) {
+      while (rs.next()) {
+        bh.consume(rs.getLong(1));
+        bh.consume(rs.getString(2));
+        bh.consume(rs.getString(3));
+        bh.consume(rs.getDouble(4));
+        bh.consume(rs.getInt(5));
+      }
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package javax.database.sqlite.benchmark;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.database.sqlite.ContentValues;
+import javax.database.sqlite.CreateOrUpdateStatus;
+import javax.database.sqlite.SQLiteDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Escrituras: insert (con Map y con ContentValues), insertWithOnConflict,
+ * update, upsert y lotes dentro de una transacción.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WriteBenchmark {
+
+  static final int ROWS = 10000;
+  static final int BATCH = 1000;
+  static final String[] SKU = {"sku"};
+
+  @Param({BenchData.MEMORY, BenchData.FILE})
+  public String storage;
+
+  private File file;
+  private SQLiteDatabase db;
+  private Random random;
+  private long nextSku;
+  private final ContentValues values = new ContentValues();
+
+  @Setup public void setUp() throws Exception {
+    file = BenchData.tempFile();
+    db = BenchData.open(storage, file);
+    BenchData.fill(db, ROWS);
+    random = new Random(BenchData.SEED);
+    nextSku = ROWS;
+  }
+
+  @TearDown public void tearDown() {
+    db.close();
+    BenchData.delete(file);
+  }
+
+  private long existingId() {
+    return 1 + random.nextInt(ROWS);
+  }
+
+  @Benchmark public long insert() {
+    return db.insert(BenchData.TABLE, BenchData.row(random, nextSku++));
+  }
+
+  @Benchmark public long insertContentValues() {
+    return db.insert(BenchData.TABLE, BenchData.row(random, nextSku++, values));
+  }
+
+  @Benchmark public long insertWithOnConflictReplace() throws SQLException {
+    return db.insertWithOnConflict(BenchData.TABLE,
+            BenchData.row(random, random.nextInt(ROWS)), "OR REPLACE");
+  }
+
+  @Benchmark public int update() {
+    Map<String, Object> values = Collections.<String, Object>singletonMap(
+            "stock", random.nextInt(1000));
+    return db.update(BenchData.TABLE, values, "id = ?", existingId());
+  }
+
+  @Benchmark @SuppressWarnings("deprecation")
+  public CreateOrUpdateStatus upsert() {
+    Map<String, Object> row = BenchData.row(random, random.nextInt(ROWS * 2));
+    return db.upsert(BenchData.TABLE, row, "sku = ?", row.get("sku"));
+  }
+
+  @Benchmark public CreateOrUpdateStatus upsertOnConflict() throws SQLException {
+    Map<String, Object> row = BenchData.row(random, random.nextInt(ROWS * 2));
+    return db.upsert(BenchData.TABLE, row, SKU);
+  }
+
+  @Benchmark @OperationsPerInvocation(BATCH)
+  public int insertAll() throws SQLException {
+    List<Map<String, Object>> rows = BenchData.rows(random, nextSku, BATCH);
+    nextSku += BATCH;
+    return db.insertAll(BenchData.TABLE, rows, "");
+  }
+
+  @Benchmark @OperationsPerInvocation(BATCH)
+  public long insertInTransaction() throws SQLException {
+    long last = 0;
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < BATCH; i++) {
+        last = db.insertWithOnConflict(BenchData.TABLE,
+                BenchData.row(random, nextSku++), "");
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    return last;
+  }
+}
@@ -0,0 +1,253 @@
+package javax.database.sqlite;
+
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Versión asíncrona de las operaciones de {@link SQLiteDatabase}: cada
+ * operación se ejecuta en un ejecutor acotado y devuelve un {@link Future}.
+ *
+ * Cada operación toma una conexión del helper (de lectura para los
+ * queries, de escritura para el resto) y la usa de principio a fin, así una
+ * transacción se ejecuta completa en la misma conexión.
+ *
+ * Con el pool de conexiones, cancelar el Future con <code>cancel(true)</code>
+ * interrumpe la sentencia en ejecución en la conexión prestada a la
+ * operación. Sin el pool la conexión es compartida con los demás hilos y no
+ * se interrumpe: la cancelación es cooperativa, una operación que no empezó
+ * ya no se ejecuta y una que está en curso termina, salvo que el trabajo
+ * consulte la interrupción de su hilo.
+ *
+ * El ejecutor tiene <code>threads</code> hilos y una cola de
+ * <code>queueCapacity</code> operaciones; si la cola está llena las
+ * operaciones se rechazan con {@link RejectedExecutionException}. Si la JVM
+ * tiene hilos virtuales se usan para los hilos del ejecutor. Las llamadas a
+ * SQLite son nativas y fijan el hilo virtual a su hilo portador, por eso el
+ * número de hilos sigue acotado; no tiene sentido que supere el número de
+ * conexiones del pool. Sin el pool se usa un solo hilo.
+ *
+ * <pre>
+ * helper.enableConnectionPool(4, 5000);
+ * helper.enableAsync(5, 1000);
+ * Future&lt;List&lt;String&gt;&gt; names = helper.getAsyncDatabase()
+ *     .queryAsync("SELECT name FROM users", mapper);
+ * </pre>
+ *
+ * @see SQLiteOpenHelper#enableAsync(int, int)
+ */
+public class AsyncDatabase implements AutoCloseable {
+  private static final String TAG = "AsyncDatabase";
+
+  private final SQLiteOpenHelper helper;
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * @param helper de donde se obtienen las conexiones
+   * @param threads número de hilos
+   * @param queueCapacity número máximo de operaciones en espera
+   */
+  AsyncDatabase(SQLiteOpenHelper helper, int threads, int queueCapacity) {
+    this.helper = helper;
+    this.executor = new ThreadPoolExecutor(threads, threads, 0,
+            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity),
+            newThreadFactory());
+  }
+
+  /**
+   * Fábrica de hilos virtuales si la JVM los tiene (Java 21+), si no de
+   * hilos daemon.
+   */
+  static ThreadFactory newThreadFactory() {
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Method name = builderClass.getMethod("name", String.class, long.class);
+      builder = name.invoke(builder, "SQLiteAsync-", 0L);
+      ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory")
+              .invoke(builder);
+      Log.i(TAG, "Using virtual threads");
+      return factory;
+    } catch (Exception e) {
+      // Sin hilos virtuales.
+    }
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadFactory() {
+      @Override public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "SQLiteAsync-" + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  /**
+   * Ejecuta un query y convierte sus filas.
+   *
+   * @param sql sentencia select
+   * @param mapper convierte cada fila en un objeto
+   * @param bindArgs valores de la sentencia
+   * @return Future con las filas
+   */
+  public <T> Future<List<T>> queryAsync(final String sql, final RowMapper<T> mapper,
+          final Object... bindArgs) {
+    return submit(Boolean.FALSE, new TransactionWork<List<T>>() {
+      @Override public List<T> execute(SQLiteDatabase db) throws SQLException {
+        List<T> list = new ArrayList<T>();
+        try (ResultSet rs = db.query(sql, bindArgs)) {
+          while (rs.next()) {
+            list.add(mapper.mapRow(rs));
+          }
+        }
+        return list;
+      }
+    });
+  }
+
+  /** @see SQLiteDatabase#executeUpdate(String, Object...) */
+  public Future<Integer> executeUpdateAsync(final String sql, final Object... bindArgs) {
+    return submit(Boolean.TRUE, new TransactionWork<Integer>() {
+      @Override public Integer execute(SQLiteDatabase db) throws SQLException {
+        return db.executeUpdate(sql, bindArgs);
+      }
+    });
+  }
+
+  /**
+   * Inserta un registro; a diferencia de {@link SQLiteDatabase#insert} los
+   * errores terminan el Future con la excepción.
+   *
+   * @return Future con el id de la fila
+   */
+  public Future<Long> insertAsync(final String table, final Map<String, Object> values) {
+    return submit(Boolean.TRUE, new TransactionWork<Long>() {
+      @Override public Long execute(SQLiteDatabase db) throws SQLException {
+        return db.insertWithOnConflict(table, values, "");
+      }
+    });
+  }
+
+  /** @see SQLiteDatabase#runInTransaction(TransactionMode, TransactionWork) */
+  public <T> Future<T> runInTransactionAsync(final TransactionMode mode,
+          final TransactionWork<T> work) {
+    return submit(Boolean.TRUE, new TransactionWork<T>() {
+      @Override public T execute(SQLiteDatabase db) throws SQLException {
+        return db.runInTransaction(mode, work);
+      }
+    });
+  }
+
+  /**
+   * Ejecuta un trabajo con una conexión, sin abrir una transacción.
+   *
+   * @param writable true para usar la conexión de escritura
+   * @param work trabajo a ejecutar
+   * @return Future con el resultado del trabajo
+   * @throws RejectedExecutionException si la cola está llena o cerrada
+   */
+  public <T> Future<T> submit(boolean writable, TransactionWork<T> work) {
+    Task<T> task = new Task<T>(new Call<T>(helper, writable, work));
+    executor.execute(task);
+    return task;
+  }
+
+  /** Número de operaciones en espera. */
+  public int getPendingCount() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Deja de aceptar operaciones y espera a que terminen las pendientes. Si
+   * se interrumpe la espera, las pendientes terminan en segundo plano.
+   */
+  @Override public void close() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Trabajo con la conexión que tiene prestada mientras se ejecuta. */
+  private static final class Call<T> implements Callable<T> {
+    private final SQLiteOpenHelper helper;
+    private final boolean writable;
+    private final TransactionWork<T> work;
+    private SQLiteDatabase running;
+    private boolean cancelled;
+
+    Call(SQLiteOpenHelper helper, boolean writable, TransactionWork<T> work) {
+      this.helper = helper;
+      this.writable = writable;
+      this.work = work;
+    }
+
+    @Override public T call() throws Exception {
+      final SQLiteDatabase db = writable ? helper.getWritableDatabase()
+              : helper.getReadableDatabase();
+      try {
+        // Sin el pool la conexión es compartida: interrumpirla cortaría las
+        // sentencias de otros hilos.
+        start((db.pool != null) ? db : null);
+        return work.execute(db);
+      } finally {
+        finish();
+        // Con el pool la conexión regresa al pool.
+        if (db.pool != null) db.close();
+      }
+    }
+
+    /** @param db conexión que se interrumpe al cancelar, o null */
+    private synchronized void start(SQLiteDatabase db) throws SQLException {
+      if (cancelled) throw new SQLException("Cancelled");
+      running = db;
+    }
+
+    private synchronized void finish() {
+      running = null;
+    }
+
+    synchronized void cancel() {
+      cancelled = true;
+      if (running != null) {
+        try {
+          running.interrupt();
+        } catch (SQLException e) {
+          Log.e(TAG, "Error interrupting statement", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Future que al cancelarse interrumpe la sentencia en SQLite, si la
+   * conexión es del pool.
+   */
+  private static final class Task<T> extends FutureTask<T> {
+    private final Call<T> call;
+
+    Task(Call<T> call) {
+      super(call);
+      this.call = call;
+    }
+
+    @Override public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean result = super.cancel(mayInterruptIfRunning);
+      if (result && mayInterruptIfRunning) call.cancel();
+      return result;
+    }
+  }
+}
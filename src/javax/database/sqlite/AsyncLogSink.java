@@ -0,0 +1,109 @@
+package javax.database.sqlite;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Destino de log asíncrono: los mensajes se encolan en un buffer circular
+ * acotado y un hilo en segundo plano los escribe en otro destino.
+ *
+ * Quien escribe nunca se bloquea; si el buffer está lleno el mensaje se
+ * descarta y se cuenta en {@link #getDroppedCount()}.
+ *
+ * <pre>
+ * Log.setSink(new AsyncLogSink(Log.CONSOLE, 8192));
+ * Log.setDebuggable(true);
+ * </pre>
+ */
+public class AsyncLogSink implements Log.Sink, AutoCloseable {
+
+  private final Log.Sink delegate;
+  private final BlockingQueue<Entry> buffer;
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final Thread writer;
+  private volatile boolean closed;
+
+  /**
+   * @param delegate destino donde se escriben los mensajes
+   * @param capacity número máximo de mensajes pendientes
+   */
+  public AsyncLogSink(Log.Sink delegate, int capacity) {
+    this.delegate = delegate;
+    this.buffer = new ArrayBlockingQueue<Entry>(capacity);
+    this.writer = new Thread(new Runnable() {
+      @Override public void run() {
+        drain();
+      }
+    }, "AsyncLogSink");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  @Override public void write(int priority, String tag, String msg, Throwable tr) {
+    if (closed || !buffer.offer(new Entry(priority, tag, msg, tr))) {
+      droppedCount.incrementAndGet();
+    }
+  }
+
+  /** Número de mensajes descartados porque el buffer estaba lleno. */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /** Número de mensajes pendientes de escribir. */
+  public int getPendingCount() {
+    return buffer.size();
+  }
+
+  private void drain() {
+    try {
+      while (!closed || !buffer.isEmpty()) {
+        Entry entry = buffer.poll(100, TimeUnit.MILLISECONDS);
+        if (entry != null) {
+          write(entry);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Un error del destino se informa en la consola sin detener el hilo. */
+  private void write(Entry entry) {
+    try {
+      delegate.write(entry.priority, entry.tag, entry.msg, entry.tr);
+    } catch (RuntimeException e) {
+      Log.CONSOLE.write(Log.ERROR, "AsyncLogSink",
+              "Error writing log entry: " + e, e);
+    }
+  }
+
+  /**
+   * Escribe los mensajes pendientes y detiene el hilo. Si se interrumpe la
+   * espera, los mensajes restantes se escriben en segundo plano.
+   */
+  @Override public void close() {
+    closed = true;
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static final class Entry {
+    final int priority;
+    final String tag;
+    final String msg;
+    final Throwable tr;
+
+    Entry(int priority, String tag, String msg, Throwable tr) {
+      this.priority = priority;
+      this.tag = tag;
+      this.msg = msg;
+      this.tr = tr;
+    }
+  }
+}
@@ -0,0 +1,902 @@
+package javax.database.sqlite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Importa archivos CSV o NDJSON (un objeto JSON por línea) a una tabla.
+ *
+ * Un hilo lee el archivo con NIO y convierte cada registro en
+ * {@link ContentValues}; el hilo que llama a {@link #importFile(File)}
+ * inserta las filas con una sola sentencia preparada y confirma una
+ * transacción cada {@link #commitEvery(int)} filas. Entre los dos hay una
+ * cola acotada de bloques de filas que se reutilizan, así la memoria no
+ * depende del tamaño del archivo.
+ *
+ * Las filas que no se pueden convertir (número de campos distinto, JSON mal
+ * formado, número inválido) o que violan una restricción se descartan y se
+ * cuentan en {@link Result#getRejectedCount()}; los demás errores detienen
+ * la importación. Las filas ya confirmadas se conservan.
+ *
+ * <pre>
+ * BulkImporter.Result result = db.importer("readings")
+ *     .map("sensor_id", "sensor", ColumnarResult.Type.LONG)
+ *     .map("value", ColumnarResult.Type.DOUBLE)
+ *     .bulkLoad(true)
+ *     .importFile(new File("readings.csv"));
+ * </pre>
+ *
+ * @see SQLiteDatabase#importer(String)
+ */
+public class BulkImporter {
+  private static final String TAG = "BulkImporter";
+
+  /** Formato del archivo. */
+  public enum Format {
+    /** Valores separados por comas, RFC 4180; la primera línea puede ser el encabezado. */
+    CSV,
+    /** Un objeto JSON por línea. */
+    NDJSON
+  }
+
+  /** Filas por bloque entre el hilo lector y el escritor. */
+  static final int CHUNK_SIZE = 512;
+  /** Número de filas rechazadas que se escriben en el log. */
+  private static final int MAX_LOGGED_REJECTS = 10;
+
+  private static final int SQLITE_TOOBIG = 18;
+  private static final int SQLITE_CONSTRAINT = 19;
+  private static final int SQLITE_MISMATCH = 20;
+
+  private final SQLiteDatabase db;
+  private final String table;
+  private final List<Mapping> mappings = new ArrayList<Mapping>();
+  private Format format = Format.CSV;
+  private char delimiter = ',';
+  private boolean header = true;
+  private String[] fieldNames;
+  private Charset charset = Charset.forName("UTF-8");
+  private String conflictAlgorithm;
+  private int commitEvery = SQLiteDatabase.DEFAULT_BATCH_SIZE * 10;
+  private int queueCapacity = 8;
+  private boolean bulkLoad;
+
+  BulkImporter(SQLiteDatabase db, String table) {
+    this.db = db;
+    this.table = table;
+  }
+
+  public BulkImporter format(Format format) {
+    this.format = format;
+    return this;
+  }
+
+  /** Separador de campos del CSV, por defecto la coma. */
+  public BulkImporter delimiter(char delimiter) {
+    this.delimiter = delimiter;
+    return this;
+  }
+
+  /** Indica si la primera línea del CSV tiene los nombres de los campos. */
+  public BulkImporter header(boolean header) {
+    this.header = header;
+    return this;
+  }
+
+  /** Nombres de los campos de un CSV sin encabezado, en orden. */
+  public BulkImporter fields(String... names) {
+    this.fieldNames = names.clone();
+    this.header = false;
+    return this;
+  }
+
+  public BulkImporter charset(Charset charset) {
+    this.charset = charset;
+    return this;
+  }
+
+  /**
+   * OR ABORT, OR FAIL, OR IGNORE, OR REPLACE. No se admite OR ROLLBACK: la
+   * fila que viola una restricción revertiría la transacción entera, con
+   * las filas anteriores, y la importación seguiría fuera de ella.
+   *
+   * @throws IllegalArgumentException con OR ROLLBACK
+   */
+  public BulkImporter conflictAlgorithm(String conflictAlgorithm) {
+    if (conflictAlgorithm != null && conflictAlgorithm.trim()
+            .replaceAll("\\s+", " ").equalsIgnoreCase("OR ROLLBACK")) {
+      throw new IllegalArgumentException("OR ROLLBACK is not supported");
+    }
+    this.conflictAlgorithm = conflictAlgorithm;
+    return this;
+  }
+
+  /**
+   * Importa el campo en la columna del mismo nombre.
+   *
+   * @see #map(String, String, ColumnarResult.Type)
+   */
+  public BulkImporter map(String field, ColumnarResult.Type type) {
+    return map(field, field, type);
+  }
+
+  /**
+   * Importa un campo en una columna, convirtiendo el texto al tipo dado. Un
+   * campo vacío o ausente se inserta como NULL, salvo el texto vacío en
+   * columnas STRING. Con type null se inserta el texto y SQLite aplica la
+   * afinidad de la columna.
+   *
+   * Si no se mapea ningún campo se importan todos, como texto, en columnas
+   * con su mismo nombre.
+   */
+  public BulkImporter map(String field, String column, ColumnarResult.Type type) {
+    mappings.add(new Mapping(field, column, type));
+    return this;
+  }
+
+  /** Filas por transacción. */
+  public BulkImporter commitEvery(int rows) {
+    if (rows < 1) throw new IllegalArgumentException("rows < 1");
+    this.commitEvery = rows;
+    return this;
+  }
+
+  /** Bloques de {@value #CHUNK_SIZE} filas que puede adelantar el lector. */
+  public BulkImporter queueCapacity(int chunks) {
+    if (chunks < 1) throw new IllegalArgumentException("chunks < 1");
+    this.queueCapacity = chunks;
+    return this;
+  }
+
+  /**
+   * Durante la importación usa los PRAGMAs de {@link PragmaProfile#BULK_LOAD}:
+   * <code>synchronous=OFF</code>, cache grande, temporales en memoria y,
+   * si la base de datos no está en WAL, journal en memoria. Al terminar se
+   * restauran los valores anteriores. No tiene efecto si la importación se
+   * hace dentro de una transacción. Un corte de luz durante la importación
+   * puede corromper la base de datos.
+   */
+  public BulkImporter bulkLoad(boolean bulkLoad) {
+    this.bulkLoad = bulkLoad;
+    return this;
+  }
+
+  public Result importFile(File file) throws IOException, SQLException,
+          InterruptedException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return importChannel(channel);
+    }
+  }
+
+  /**
+   * Importa lo que se lea del canal hasta su fin; el canal no se cierra.
+   *
+   * @throws IOException si falla la lectura o el encabezado no tiene los
+   * campos mapeados
+   * @throws SQLException si falla una escritura por una causa distinta de
+   * la fila
+   */
+  public Result importChannel(ReadableByteChannel channel) throws IOException,
+          SQLException, InterruptedException {
+    final long start = System.nanoTime();
+    final Parser parser = (format == Format.CSV)
+            ? new CsvParser(new CharSource(channel, charset), delimiter)
+            : new JsonParser(new CharSource(channel, charset));
+    final Mapping[] columns = parser.open();
+    final List<String> names = new ArrayList<String>(columns.length);
+    for (Mapping mapping : columns) {
+      names.add(mapping.column);
+    }
+    final String sql = SqlTemplates.insert(table, conflictAlgorithm, names, null).sql;
+
+    final int chunkSize = Math.min(CHUNK_SIZE, commitEvery);
+    final BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(queueCapacity + 2);
+    final BlockingQueue<Chunk> full = new ArrayBlockingQueue<Chunk>(queueCapacity + 2);
+    for (int i = 0; i < queueCapacity + 2; i++) {
+      free.add(new Chunk(chunkSize, columns.length));
+    }
+    final Reader reader = new Reader(parser, free, full);
+    final Thread thread = new Thread(reader, "SQLiteImport-" + table);
+    thread.setDaemon(true);
+
+    final boolean ownTransaction = !db.inTransaction();
+    final Map<String, String> pragmas = (bulkLoad && ownTransaction)
+            ? applyBulkLoad() : null;
+    long inserted = 0;
+    long rejected = 0;
+    try {
+      if (ownTransaction) db.beginTransaction();
+      thread.start();
+      db.markWritten(sql);
+      try (PreparedStatement ps = db.compileStatement(sql)) {
+        int uncommitted = 0;
+        boolean last = false;
+        while (!last) {
+          final Chunk chunk = full.take();
+          if (chunk.error != null) throw readError(chunk.error);
+          for (int i = 0; i < chunk.count; i++) {
+            chunk.rows[i].bind(ps, 0);
+            try {
+              if (ps.executeUpdate() > 0) inserted++;
+            } catch (SQLException e) {
+              if (!isRowError(e)) throw e;
+              if (++rejected <= MAX_LOGGED_REJECTS) {
+                Log.e(TAG, "Rejected row " + chunk.rowNumbers[i] + ": " + e.getMessage());
+              }
+            }
+            if (++uncommitted == commitEvery && ownTransaction) {
+              db.setTransactionSuccessful();
+              uncommitted = 0;
+            }
+          }
+          last = chunk.last;
+          chunk.count = 0;
+          free.put(chunk);
+        }
+      }
+      if (ownTransaction) db.setTransactionSuccessful();
+    } catch (SQLException | IOException | InterruptedException | RuntimeException e) {
+      if (ownTransaction && db.inTransaction()) db.rollback();
+      throw e;
+    } finally {
+      // Sin interrumpir al lector: eso cerraría el canal de quien llama.
+      reader.cancelled = true;
+      free.offer(new Chunk(0, 0));
+      thread.join();
+      if (ownTransaction && db.inTransaction()) db.endTransaction();
+      if (pragmas != null) restorePragmas(pragmas);
+    }
+    Result result = new Result(inserted, rejected + reader.rejected,
+            parser.source.bytesRead, System.nanoTime() - start);
+    if (Log.isDebuggable()) Log.i(TAG, "Imported into " + table + ": " + result);
+    return result;
+  }
+
+  /** Error del hilo lector, como excepción del escritor. */
+  private static IOException readError(Throwable e) {
+    if (e instanceof IOException) return (IOException) e;
+    if (e instanceof RuntimeException) throw (RuntimeException) e;
+    if (e instanceof Error) throw (Error) e;
+    return new IOException(e);
+  }
+
+  /** Errores de una sola fila: la importación continúa sin ella. */
+  private static boolean isRowError(SQLException e) {
+    final int code = e.getErrorCode() & 0xff;
+    return code == SQLITE_CONSTRAINT || code == SQLITE_MISMATCH
+            || code == SQLITE_TOOBIG;
+  }
+
+  /** Aplica los PRAGMAs de carga masiva y devuelve los valores anteriores. */
+  private Map<String, String> applyBulkLoad() throws SQLException {
+    final PragmaProfile profile = PragmaProfile.BULK_LOAD;
+    Map<String, String> previous = new HashMap<String, String>();
+    previous.put("synchronous", db.getPragma("synchronous"));
+    previous.put("cache_size", db.getPragma("cache_size"));
+    previous.put("temp_store", db.getPragma("temp_store"));
+    db.execSQL("PRAGMA synchronous=" + profile.getSynchronous().name());
+    db.execSQL("PRAGMA cache_size=" + profile.getCacheSize());
+    db.execSQL("PRAGMA temp_store=" + profile.getTempStore().name());
+    // Salir de WAL requiere que no haya otras conexiones; en WAL se deja.
+    String journalMode = db.getPragma("journal_mode");
+    if (!"wal".equalsIgnoreCase(journalMode)) {
+      previous.put("journal_mode", journalMode);
+      db.execSQL("PRAGMA journal_mode=" + profile.getJournalMode().name());
+    }
+    return previous;
+  }
+
+  private void restorePragmas(Map<String, String> previous) {
+    for (Map.Entry<String, String> entry : previous.entrySet()) {
+      try {
+        db.execSQL("PRAGMA " + entry.getKey() + "=" + entry.getValue());
+      } catch (SQLException e) {
+        Log.e(TAG, "Error restoring PRAGMA " + entry.getKey(), e);
+      }
+    }
+  }
+
+  /** Resultado de una importación. */
+  public static final class Result {
+    private final long insertedCount;
+    private final long rejectedCount;
+    private final long bytesRead;
+    private final long elapsedNanos;
+
+    Result(long insertedCount, long rejectedCount, long bytesRead, long elapsedNanos) {
+      this.insertedCount = insertedCount;
+      this.rejectedCount = rejectedCount;
+      this.bytesRead = bytesRead;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getInsertedCount() {
+      return insertedCount;
+    }
+
+    /** Filas descartadas por no poder convertirse o por violar una restricción. */
+    public long getRejectedCount() {
+      return rejectedCount;
+    }
+
+    public long getBytesRead() {
+      return bytesRead;
+    }
+
+    public long getElapsedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /** Filas insertadas por segundo. */
+    public double getRowsPerSecond() {
+      return (elapsedNanos == 0) ? 0 : insertedCount * 1e9 / elapsedNanos;
+    }
+
+    /** MiB leídos por segundo. */
+    public double getMegabytesPerSecond() {
+      return (elapsedNanos == 0) ? 0 : bytesRead * 1e9 / elapsedNanos / (1024 * 1024);
+    }
+
+    @Override public String toString() {
+      return String.format("%d rows, %d rejected, %d ms, %.0f rows/s, %.1f MiB/s",
+              insertedCount, rejectedCount, getElapsedMillis(), getRowsPerSecond(),
+              getMegabytesPerSecond());
+    }
+  }
+
+  /** Campo del archivo y la columna donde se importa. */
+  private static final class Mapping {
+    final String field;
+    final String column;
+    final ColumnarResult.Type type;
+
+    Mapping(String field, String column, ColumnarResult.Type type) {
+      this.field = field;
+      this.column = column;
+      this.type = type;
+    }
+
+    /**
+     * Guarda el texto del campo convertido al tipo de la columna.
+     *
+     * @throws NumberFormatException si el texto no es un número válido
+     */
+    void put(ContentValues values, String text) {
+      if (text == null) {
+        values.putNull(column);
+      } else if (type == ColumnarResult.Type.LONG) {
+        if (text.isEmpty()) {
+          values.putNull(column);
+        } else {
+          values.put(column, Long.parseLong(text.trim()));
+        }
+      } else if (type == ColumnarResult.Type.DOUBLE) {
+        if (text.isEmpty()) {
+          values.putNull(column);
+        } else {
+          values.put(column, Double.parseDouble(text));
+        }
+      } else {
+        values.put(column, text);
+      }
+    }
+  }
+
+  /** Filas que pasan del lector al escritor; se reutilizan. */
+  private static final class Chunk {
+    final ContentValues[] rows;
+    final long[] rowNumbers;
+    int count;
+    boolean last;
+    /** Error del lector, el escritor lo lanza. */
+    Throwable error;
+
+    Chunk(int size, int columns) {
+      rows = new ContentValues[size];
+      rowNumbers = new long[size];
+      for (int i = 0; i < size; i++) {
+        rows[i] = new ContentValues(columns);
+      }
+    }
+  }
+
+  /** Fila que no se puede importar. */
+  private static final class RejectedRowException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    RejectedRowException(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  /** Hilo lector: llena bloques libres y los pasa al escritor. */
+  private static final class Reader implements Runnable {
+    private final Parser parser;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> full;
+    /** Filas rechazadas por el lector; se lee después de join(). */
+    long rejected;
+    /**
+     * El escritor terminó; lo revisa entre filas y al tomar un bloque libre,
+     * donde el escritor lo despierta con un bloque vacío.
+     */
+    volatile boolean cancelled;
+
+    Reader(Parser parser, BlockingQueue<Chunk> free, BlockingQueue<Chunk> full) {
+      this.parser = parser;
+      this.free = free;
+      this.full = full;
+    }
+
+    @Override public void run() {
+      try {
+        boolean eof = false;
+        while (!eof && !cancelled) {
+          final Chunk chunk = free.take();
+          if (cancelled) return;
+          try {
+            while (chunk.count < chunk.rows.length && !cancelled) {
+              try {
+                if (!parser.next(chunk.rows[chunk.count])) {
+                  eof = true;
+                  break;
+                }
+                chunk.rowNumbers[chunk.count++] = parser.rowNumber;
+              } catch (RejectedRowException e) {
+                if (++rejected <= MAX_LOGGED_REJECTS) {
+                  Log.e(TAG, "Rejected row " + parser.rowNumber + ": " + e.getMessage());
+                }
+              }
+            }
+          } catch (Throwable e) {
+            // Cualquier error termina la lectura; sin el último bloque el
+            // escritor esperaría para siempre.
+            chunk.error = e;
+            eof = true;
+          }
+          chunk.last = eof;
+          full.put(chunk);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Caracteres decodificados de un canal, leído en bloques. */
+  private static final class CharSource {
+    private final ReadableByteChannel channel;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(256 * 1024);
+    private final CharBuffer chars = CharBuffer.allocate(64 * 1024);
+    private boolean eof;
+    private boolean done;
+    private int pushback = -1;
+    /** Si falta revisar el BOM al inicio del archivo. */
+    private boolean start = true;
+    long bytesRead;
+
+    CharSource(ReadableByteChannel channel, Charset charset) {
+      this.channel = channel;
+      this.decoder = charset.newDecoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.chars.flip();
+    }
+
+    /** Siguiente carácter, o -1 al final. */
+    int read() throws IOException {
+      if (pushback >= 0) {
+        int c = pushback;
+        pushback = -1;
+        return c;
+      }
+      if (!chars.hasRemaining() && !fill()) return -1;
+      return chars.get();
+    }
+
+    void unread(int c) {
+      pushback = c;
+    }
+
+    private boolean fill() throws IOException {
+      chars.clear();
+      while (chars.position() == 0 && !done) {
+        if (!eof) {
+          int n = channel.read(bytes);
+          if (n < 0) {
+            eof = true;
+          } else {
+            bytesRead += n;
+          }
+        }
+        bytes.flip();
+        CoderResult result = decoder.decode(bytes, chars, eof);
+        bytes.compact();
+        if (eof && result.isUnderflow()) {
+          decoder.flush(chars);
+          done = true;
+        }
+      }
+      chars.flip();
+      if (start && chars.hasRemaining()) {
+        start = false;
+        // El BOM que agregan algunos editores no es parte del primer campo.
+        if (chars.get(chars.position()) == '\uFEFF') {
+          chars.get();
+          if (!chars.hasRemaining()) return fill();
+        }
+      }
+      return chars.hasRemaining();
+    }
+  }
+
+  /** Convierte registros del archivo en filas. */
+  private abstract class Parser {
+    final CharSource source;
+    final StringBuilder text = new StringBuilder();
+    Mapping[] columns;
+    /** Número del último registro leído, desde 1. */
+    long rowNumber;
+
+    Parser(CharSource source) {
+      this.source = source;
+    }
+
+    /**
+     * Lee lo necesario para conocer los campos y resuelve las columnas.
+     */
+    abstract Mapping[] open() throws IOException;
+
+    /**
+     * Lee el siguiente registro en <code>values</code>.
+     *
+     * @return false al final del archivo
+     */
+    abstract boolean next(ContentValues values) throws IOException,
+            RejectedRowException;
+
+    /** Columnas de los campos mapeados, o de todos si no hay mapeos. */
+    Mapping[] resolve(List<String> fields) {
+      if (mappings.isEmpty()) {
+        Mapping[] all = new Mapping[fields.size()];
+        for (int i = 0; i < all.length; i++) {
+          all[i] = new Mapping(fields.get(i), fields.get(i), null);
+        }
+        return all;
+      }
+      return mappings.toArray(new Mapping[mappings.size()]);
+    }
+
+    /** Lee una línea en <code>text</code>, sin el fin de línea. */
+    boolean readLine() throws IOException {
+      text.setLength(0);
+      int c = source.read();
+      if (c < 0) return false;
+      while (c >= 0 && c != '\n') {
+        text.append((char) c);
+        c = source.read();
+      }
+      int end = text.length();
+      if (end > 0 && text.charAt(end - 1) == '\r') text.setLength(end - 1);
+      return true;
+    }
+  }
+
+  private final class CsvParser extends Parser {
+    private final char delimiter;
+    private final List<String> fields = new ArrayList<String>();
+    private int fieldCount;
+    /** Posición en el registro de cada columna. */
+    private int[] positions;
+
+    CsvParser(CharSource source, char delimiter) {
+      super(source);
+      this.delimiter = delimiter;
+    }
+
+    @Override Mapping[] open() throws IOException {
+      List<String> names;
+      if (header) {
+        if (!readRecord()) throw new IOException("Empty file");
+        names = new ArrayList<String>(fields);
+      } else if (fieldNames != null) {
+        names = Arrays.asList(fieldNames);
+      } else {
+        throw new IllegalStateException("CSV without header needs fields(..)");
+      }
+      fieldCount = names.size();
+      columns = resolve(names);
+      positions = new int[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        positions[i] = names.indexOf(columns[i].field);
+        if (positions[i] < 0) {
+          throw new IOException("Field not found: " + columns[i].field);
+        }
+      }
+      return columns;
+    }
+
+    @Override boolean next(ContentValues values) throws IOException,
+            RejectedRowException {
+      do {
+        if (!readRecord()) return false;
+        rowNumber++;
+      } while (fields.size() == 1 && fields.get(0).isEmpty());
+      if (fields.size() != fieldCount) {
+        throw new RejectedRowException("expected " + fieldCount + " fields, found "
+                + fields.size());
+      }
+      values.clear();
+      try {
+        for (int i = 0; i < columns.length; i++) {
+          columns[i].put(values, fields.get(positions[i]));
+        }
+      } catch (NumberFormatException e) {
+        throw new RejectedRowException(e.getMessage());
+      }
+      return true;
+    }
+
+    /** Lee un registro; los campos entre comillas pueden tener saltos de línea. */
+    private boolean readRecord() throws IOException {
+      fields.clear();
+      int c = source.read();
+      if (c < 0) return false;
+      text.setLength(0);
+      while (true) {
+        if (c == '"' && text.length() == 0) {
+          while (true) {
+            c = source.read();
+            if (c < 0) break;
+            if (c == '"') {
+              c = source.read();
+              if (c != '"') break;
+            }
+            text.append((char) c);
+          }
+          continue;
+        }
+        if (c == delimiter) {
+          fields.add(text.toString());
+          text.setLength(0);
+        } else if (c == '\n' || c < 0) {
+          fields.add(text.toString());
+          return true;
+        } else if (c == '\r') {
+          c = source.read();
+          if (c != '\n' && c >= 0) source.unread(c);
+          fields.add(text.toString());
+          return true;
+        } else {
+          text.append((char) c);
+        }
+        c = source.read();
+      }
+    }
+  }
+
+  private final class JsonParser extends Parser {
+    private final Map<String, String> object = new HashMap<String, String>();
+    private final StringBuilder value = new StringBuilder();
+    private int pos;
+    /** Primer objeto, leído en open() para conocer los campos. */
+    private boolean pending;
+
+    JsonParser(CharSource source) {
+      super(source);
+    }
+
+    @Override Mapping[] open() throws IOException {
+      List<String> names = new ArrayList<String>();
+      if (mappings.isEmpty()) {
+        // Los campos se toman del primer objeto, en su orden.
+        while (readLine()) {
+          rowNumber++;
+          if (isBlank()) continue;
+          try {
+            parseObject(names);
+          } catch (RejectedRowException e) {
+            throw new IOException("Line " + rowNumber + ": " + e.getMessage());
+          }
+          pending = true;
+          break;
+        }
+        if (!pending) throw new IOException("Empty file");
+      }
+      columns = resolve(names);
+      return columns;
+    }
+
+    @Override boolean next(ContentValues values) throws IOException,
+            RejectedRowException {
+      if (pending) {
+        pending = false;
+      } else {
+        do {
+          if (!readLine()) return false;
+          rowNumber++;
+        } while (isBlank());
+        parseObject(null);
+      }
+      values.clear();
+      try {
+        for (Mapping column : columns) {
+          column.put(values, object.get(column.field));
+        }
+      } catch (NumberFormatException e) {
+        throw new RejectedRowException(e.getMessage());
+      }
+      return true;
+    }
+
+    private boolean isBlank() {
+      for (int i = 0; i < text.length(); i++) {
+        if (!Character.isWhitespace(text.charAt(i))) return false;
+      }
+      return true;
+    }
+
+    /**
+     * Lee el objeto de la línea. Los textos se decodifican, los números se
+     * conservan como texto, true y false son 1 y 0, y los objetos y arreglos
+     * anidados se guardan como texto JSON.
+     *
+     * @param names donde se agregan los nombres de los campos, o null
+     */
+    private void parseObject(List<String> names) throws RejectedRowException {
+      object.clear();
+      pos = 0;
+      expect('{');
+      skipSpaces();
+      if (peek() == '}') {
+        pos++;
+      } else {
+        while (true) {
+          skipSpaces();
+          String key = parseString();
+          skipSpaces();
+          expect(':');
+          skipSpaces();
+          object.put(key, parseValue());
+          if (names != null) names.add(key);
+          skipSpaces();
+          char c = nextChar();
+          if (c == '}') break;
+          if (c != ',') throw error("expected ',' or '}'");
+        }
+      }
+      skipSpaces();
+      if (pos < text.length()) throw error("unexpected text after object");
+    }
+
+    private String parseValue() throws RejectedRowException {
+      char c = peek();
+      if (c == '"') return parseString();
+      if (c == '{' || c == '[') return skipNested();
+      if (matches("null")) {
+        pos += 4;
+        return null;
+      }
+      if (matches("true")) {
+        pos += 4;
+        return "1";
+      }
+      if (matches("false")) {
+        pos += 5;
+        return "0";
+      }
+      int start = pos;
+      while (pos < text.length() && "+-.eE0123456789".indexOf(text.charAt(pos)) >= 0) {
+        pos++;
+      }
+      if (pos == start) throw error("unexpected value");
+      return text.substring(start, pos);
+    }
+
+    private String parseString() throws RejectedRowException {
+      expect('"');
+      value.setLength(0);
+      while (true) {
+        char c = nextChar();
+        if (c == '"') return value.toString();
+        if (c != '\\') {
+          value.append(c);
+          continue;
+        }
+        c = nextChar();
+        switch (c) {
+          case 'b': value.append('\b'); break;
+          case 'f': value.append('\f'); break;
+          case 'n': value.append('\n'); break;
+          case 'r': value.append('\r'); break;
+          case 't': value.append('\t'); break;
+          case 'u':
+            if (pos + 4 > text.length()) throw error("bad unicode escape");
+            try {
+              value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+            } catch (NumberFormatException e) {
+              throw error("bad unicode escape");
+            }
+            pos += 4;
+            break;
+          default: value.append(c);
+        }
+      }
+    }
+
+    /** Salta un objeto o arreglo y devuelve su texto. */
+    private String skipNested() throws RejectedRowException {
+      int start = pos;
+      int depth = 0;
+      boolean inString = false;
+      do {
+        char c = nextChar();
+        if (inString) {
+          if (c == '\\') {
+            nextChar();
+          } else if (c == '"') {
+            inString = false;
+          }
+        } else if (c == '"') {
+          inString = true;
+        } else if (c == '{' || c == '[') {
+          depth++;
+        } else if (c == '}' || c == ']') {
+          depth--;
+        }
+      } while (depth > 0);
+      return text.substring(start, pos);
+    }
+
+    private boolean matches(String word) {
+      if (pos + word.length() > text.length()) return false;
+      for (int i = 0; i < word.length(); i++) {
+        if (text.charAt(pos + i) != word.charAt(i)) return false;
+      }
+      return true;
+    }
+
+    private void skipSpaces() {
+      while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+    }
+
+    private char peek() throws RejectedRowException {
+      if (pos >= text.length()) throw error("unexpected end of line");
+      return text.charAt(pos);
+    }
+
+    private char nextChar() throws RejectedRowException {
+      char c = peek();
+      pos++;
+      return c;
+    }
+
+    private void expect(char expected) throws RejectedRowException {
+      if (nextChar() != expected) throw error("expected '" + expected + "'");
+    }
+
+    private RejectedRowException error(String message) {
+      return new RejectedRowException(message + " at column " + (pos + 1));
+    }
+  }
+}
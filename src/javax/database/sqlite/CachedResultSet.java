@@ -0,0 +1,532 @@
+package javax.database.sqlite;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteConnectionConfig;
+import org.sqlite.date.FastDateFormat;
+
+/**
+ * Cursor de solo lectura sobre filas copiadas de un query, para la cache de
+ * resultados.
+ *
+ * Cada valor se guarda como lo devuelve <code>getObject</code> del driver
+ * (Integer, Long, Double, String, byte[] o null) y los getters lo convierten
+ * igual que SQLite: el texto se lee como número por su prefijo numérico y
+ * los números se leen como texto con el formato de SQLite. Las fechas usan
+ * la configuración de la conexión que ejecutó el query.
+ *
+ * Si se crea con el cursor original, después de las filas copiadas sigue
+ * leyendo de él, una fila a la vez.
+ */
+final class CachedResultSet extends SQLiteResultSet {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** Recibe los métodos que este cursor no implementa. */
+  private static final ResultSet UNSUPPORTED = (ResultSet) Proxy.newProxyInstance(
+          ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+          new InvocationHandler() {
+    @Override public Object invoke(Object proxy, Method method, Object[] args)
+            throws SQLException {
+      throw new SQLFeatureNotSupportedException(method.getName()
+              + " is not supported by a cached result");
+    }
+  });
+
+  private final Rows rows;
+  /** Cursor original del que se siguen leyendo filas, o null. */
+  private final ResultSet cursor;
+  /** El cursor original está en una fila que aún no se devolvió. */
+  private boolean cursorPending;
+  private int row = -1;
+  private Object[] current;
+  private boolean wasNull;
+  private boolean closed;
+
+  CachedResultSet(Rows rows, ResultSet cursor) {
+    super(UNSUPPORTED, null);
+    this.rows = rows;
+    this.cursor = cursor;
+    this.cursorPending = cursor != null;
+  }
+
+  /** Filas copiadas de un cursor, con sus metadatos. */
+  static final class Rows {
+    final RowSetMetaDataImpl metaData;
+    final int columnCount;
+    final List<Object[]> values = new ArrayList<Object[]>();
+    final FastDateFormat dateFormat;
+    final String dateStringFormat;
+    final long dateMultiplier;
+    /** true si quedaron filas sin copiar en el cursor original. */
+    boolean truncated;
+
+    private Rows(ResultSet rs) throws SQLException {
+      ResultSetMetaData source = rs.getMetaData();
+      columnCount = source.getColumnCount();
+      metaData = new RowSetMetaDataImpl();
+      metaData.setColumnCount(columnCount);
+      for (int i = 1; i <= columnCount; i++) {
+        metaData.setColumnLabel(i, source.getColumnLabel(i));
+        metaData.setColumnName(i, source.getColumnName(i));
+        metaData.setColumnType(i, source.getColumnType(i));
+        metaData.setColumnTypeName(i, source.getColumnTypeName(i));
+        metaData.setNullable(i, source.isNullable(i));
+        metaData.setTableName(i, source.getTableName(i));
+        metaData.setAutoIncrement(i, source.isAutoIncrement(i));
+      }
+      SQLiteConnectionConfig config = connectionConfig(rs);
+      if (config != null) {
+        dateFormat = config.getDateFormat();
+        dateStringFormat = config.getDateStringFormat();
+        dateMultiplier = config.getDateMultiplier();
+      } else {
+        dateStringFormat = SQLiteConfig.DEFAULT_DATE_STRING_FORMAT;
+        dateFormat = FastDateFormat.getInstance(dateStringFormat);
+        dateMultiplier = 1;
+      }
+    }
+
+    /**
+     * Copia las filas del cursor hasta <code>maxWeight</code> valores; si
+     * hay más, el cursor queda en la primera fila sin copiar y
+     * {@link #truncated} es true. No cierra el cursor.
+     */
+    static Rows copy(ResultSet rs, long maxWeight) throws SQLException {
+      final Rows rows = new Rows(rs);
+      final long maxRows = maxWeight / Math.max(1, rows.columnCount);
+      while (rs.next()) {
+        if (rows.values.size() == maxRows) {
+          rows.truncated = true;
+          break;
+        }
+        rows.values.add(rows.read(rs));
+      }
+      return rows;
+    }
+
+    Object[] read(ResultSet rs) throws SQLException {
+      Object[] row = new Object[columnCount];
+      for (int i = 0; i < columnCount; i++) {
+        row[i] = rs.getObject(i + 1);
+      }
+      return row;
+    }
+
+    /** Peso en valores, como mínimo 1. */
+    long weight() {
+      return Math.max(1L, (long) values.size() * columnCount);
+    }
+
+    private static SQLiteConnectionConfig connectionConfig(ResultSet rs) {
+      try {
+        Statement statement = rs.getStatement();
+        Connection conn = (statement == null) ? null : statement.getConnection();
+        if (conn != null && conn.isWrapperFor(SQLiteConnection.class)) {
+          return conn.unwrap(SQLiteConnection.class).getConnectionConfig();
+        }
+      } catch (SQLException e) {
+        // Sin la conexión se usa la configuración por defecto.
+      }
+      return null;
+    }
+  }
+
+  @Override public boolean next() throws SQLException {
+    checkOpen();
+    if (row + 1 < rows.values.size()) {
+      row++;
+      current = rows.values.get(row);
+      // Sin cache nadie más lee estas filas.
+      if (cursor != null) rows.values.set(row, null);
+      return true;
+    }
+    if (cursor != null) {
+      if (cursorPending || cursor.next()) {
+        cursorPending = false;
+        row++;
+        current = rows.read(cursor);
+        return true;
+      }
+    }
+    row = rows.values.size();
+    current = null;
+    return false;
+  }
+
+  @Override public void close() {
+    closed = true;
+    current = null;
+    SQLiteDatabase.closeQuietly(cursor);
+  }
+
+  @Override public boolean isClosed() {
+    return closed;
+  }
+
+  private void checkOpen() throws SQLException {
+    if (closed) throw new SQLException("ResultSet is closed");
+  }
+
+  /** Valor de una columna de la fila actual. */
+  private Object value(int columnIndex) throws SQLException {
+    checkOpen();
+    if (current == null) throw new SQLException("ResultSet is not on a row");
+    if (columnIndex < 1 || columnIndex > rows.columnCount) {
+      throw new SQLException("column " + columnIndex + " out of bounds [1,"
+              + rows.columnCount + "]");
+    }
+    Object value = current[columnIndex - 1];
+    wasNull = value == null;
+    return value;
+  }
+
+  @Override public boolean wasNull() {
+    return wasNull;
+  }
+
+  @Override public Object getObject(int columnIndex) throws SQLException {
+    Object value = value(columnIndex);
+    return (value instanceof byte[]) ? ((byte[]) value).clone() : value;
+  }
+
+  @Override public Object getObject(int columnIndex, Map<String, Class<?>> map)
+          throws SQLException {
+    return getObject(columnIndex);
+  }
+
+  @Override public String getString(int columnIndex) throws SQLException {
+    return text(value(columnIndex));
+  }
+
+  @Override public String getNString(int columnIndex) throws SQLException {
+    return getString(columnIndex);
+  }
+
+  @Override public long getLong(int columnIndex) throws SQLException {
+    Object value = value(columnIndex);
+    if (value == null) return 0;
+    if (value instanceof Double) return (long) ((Double) value).doubleValue();
+    if (value instanceof Number) return ((Number) value).longValue();
+    return parseLong(text(value));
+  }
+
+  @Override public int getInt(int columnIndex) throws SQLException {
+    return (int) getLong(columnIndex);
+  }
+
+  @Override public short getShort(int columnIndex) throws SQLException {
+    return (short) getInt(columnIndex);
+  }
+
+  @Override public byte getByte(int columnIndex) throws SQLException {
+    return (byte) getInt(columnIndex);
+  }
+
+  @Override public boolean getBoolean(int columnIndex) throws SQLException {
+    return getInt(columnIndex) != 0;
+  }
+
+  @Override public double getDouble(int columnIndex) throws SQLException {
+    Object value = value(columnIndex);
+    if (value == null) return 0;
+    if (value instanceof Number) return ((Number) value).doubleValue();
+    return parseDouble(text(value));
+  }
+
+  @Override public float getFloat(int columnIndex) throws SQLException {
+    return (float) getDouble(columnIndex);
+  }
+
+  @Override public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+    String text = getString(columnIndex);
+    if (text == null) return null;
+    try {
+      return new BigDecimal(text);
+    } catch (NumberFormatException e) {
+      throw new SQLException("Bad value for type BigDecimal : " + text);
+    }
+  }
+
+  @Override public byte[] getBytes(int columnIndex) throws SQLException {
+    Object value = value(columnIndex);
+    if (value == null) return null;
+    if (value instanceof byte[]) return ((byte[]) value).clone();
+    return text(value).getBytes(UTF_8);
+  }
+
+  @Override public InputStream getBinaryStream(int columnIndex) throws SQLException {
+    byte[] bytes = getBytes(columnIndex);
+    return (bytes == null) ? null : new ByteArrayInputStream(bytes);
+  }
+
+  @Override public Reader getCharacterStream(int columnIndex) throws SQLException {
+    String text = getString(columnIndex);
+    return (text == null) ? null : new StringReader(text);
+  }
+
+  @Override public Reader getNCharacterStream(int columnIndex) throws SQLException {
+    return getCharacterStream(columnIndex);
+  }
+
+  @Override public Date getDate(int columnIndex) throws SQLException {
+    Long millis = millis(columnIndex, null, "date");
+    return (millis == null) ? null : new Date(millis);
+  }
+
+  @Override public Date getDate(int columnIndex, Calendar cal) throws SQLException {
+    Long millis = millis(columnIndex, cal, "date");
+    return (millis == null) ? null : new Date(millis);
+  }
+
+  @Override public Time getTime(int columnIndex) throws SQLException {
+    Long millis = millis(columnIndex, null, "time");
+    return (millis == null) ? null : new Time(millis);
+  }
+
+  @Override public Time getTime(int columnIndex, Calendar cal) throws SQLException {
+    Long millis = millis(columnIndex, cal, "time");
+    return (millis == null) ? null : new Time(millis);
+  }
+
+  @Override public Timestamp getTimestamp(int columnIndex) throws SQLException {
+    Long millis = millis(columnIndex, null, "time stamp");
+    return (millis == null) ? null : new Timestamp(millis);
+  }
+
+  @Override public Timestamp getTimestamp(int columnIndex, Calendar cal)
+          throws SQLException {
+    Long millis = millis(columnIndex, cal, "time stamp");
+    return (millis == null) ? null : new Timestamp(millis);
+  }
+
+  /**
+   * Instante de una fecha como la lee el driver: el texto con el formato de
+   * la conexión, los reales como día juliano y los enteros multiplicados
+   * por la precisión de la conexión.
+   */
+  private Long millis(int columnIndex, Calendar cal, String type) throws SQLException {
+    Object value = value(columnIndex);
+    if (value == null) return null;
+    if (value instanceof Double) {
+      Calendar calendar = (cal == null) ? Calendar.getInstance() : (Calendar) cal.clone();
+      return julianToMillis((Double) value, calendar);
+    }
+    if (value instanceof Number) {
+      return ((Number) value).longValue() * rows.dateMultiplier;
+    }
+    FastDateFormat format = (cal == null) ? rows.dateFormat
+            : FastDateFormat.getInstance(rows.dateStringFormat, cal.getTimeZone());
+    try {
+      return format.parse(text(value)).getTime();
+    } catch (ParseException e) {
+      SQLException error = new SQLException("Error parsing " + type);
+      error.initCause(e);
+      throw error;
+    }
+  }
+
+  @Override public ResultSetMetaData getMetaData() throws SQLException {
+    checkOpen();
+    return rows.metaData;
+  }
+
+  @Override public Statement getStatement() {
+    return null;
+  }
+
+  @Override public SQLWarning getWarnings() {
+    return null;
+  }
+
+  @Override public void clearWarnings() {
+  }
+
+  @Override public int getRow() {
+    return (current == null) ? 0 : row + 1;
+  }
+
+  @Override public boolean isBeforeFirst() {
+    return row < 0 && (!rows.values.isEmpty() || cursorPending);
+  }
+
+  @Override public boolean isAfterLast() {
+    return row >= 0 && current == null;
+  }
+
+  @Override public boolean isFirst() {
+    return row == 0 && current != null;
+  }
+
+  @Override public int getType() {
+    return TYPE_FORWARD_ONLY;
+  }
+
+  @Override public int getConcurrency() {
+    return CONCUR_READ_ONLY;
+  }
+
+  @Override public int getFetchDirection() {
+    return FETCH_FORWARD;
+  }
+
+  @Override public void setFetchDirection(int direction) throws SQLException {
+    if (direction != FETCH_FORWARD) {
+      throw new SQLException("ResultSet is forward-only");
+    }
+  }
+
+  @Override public int getFetchSize() {
+    return 0;
+  }
+
+  @Override public void setFetchSize(int rows) throws SQLException {
+    if (rows < 0) throw new SQLException("rows < 0");
+  }
+
+  @Override public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) return iface.cast(this);
+    throw new SQLException("Not a wrapper for " + iface.getName());
+  }
+
+  @Override public boolean isWrapperFor(Class<?> iface) {
+    return iface.isInstance(this);
+  }
+
+  /** Texto de un valor como lo devuelve SQLite. */
+  private static String text(Object value) {
+    if (value == null || value instanceof String) return (String) value;
+    if (value instanceof byte[]) return new String((byte[]) value, UTF_8);
+    if (value instanceof Double) return realToText((Double) value);
+    return value.toString();
+  }
+
+  /** Formato <code>%!.15g</code> con el que SQLite convierte un real a texto. */
+  static String realToText(double value) {
+    if (Double.isInfinite(value)) return (value > 0) ? "Inf" : "-Inf";
+    String text = String.format(Locale.ROOT, "%.15g", value);
+    int e = text.indexOf('e');
+    String mantissa = (e < 0) ? text : text.substring(0, e);
+    if (mantissa.indexOf('.') < 0) {
+      mantissa += ".0";
+    } else {
+      int end = mantissa.length();
+      while (mantissa.charAt(end - 1) == '0') end--;
+      if (mantissa.charAt(end - 1) == '.') end++;
+      mantissa = mantissa.substring(0, end);
+    }
+    return (e < 0) ? mantissa : mantissa + text.substring(e);
+  }
+
+  /** Entero del prefijo numérico del texto, como sqlite3Atoi64. */
+  static long parseLong(String text) {
+    int n = text.length();
+    int i = 0;
+    while (i < n && Character.isWhitespace(text.charAt(i))) i++;
+    boolean negative = false;
+    if (i < n && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+      negative = text.charAt(i++) == '-';
+    }
+    int start = i;
+    while (i < n && text.charAt(i) >= '0' && text.charAt(i) <= '9') i++;
+    if (i == start) return 0;
+    BigInteger value = new BigInteger(text.substring(start, i));
+    if (negative) value = value.negate();
+    if (value.bitLength() > 63) return negative ? Long.MIN_VALUE : Long.MAX_VALUE;
+    return value.longValue();
+  }
+
+  /** Real del prefijo numérico del texto, como sqlite3AtoF. */
+  static double parseDouble(String text) {
+    int n = text.length();
+    int i = 0;
+    while (i < n && Character.isWhitespace(text.charAt(i))) i++;
+    int start = i;
+    if (i < n && (text.charAt(i) == '-' || text.charAt(i) == '+')) i++;
+    int digits = 0;
+    while (i < n && Character.isDigit(text.charAt(i))) {
+      i++;
+      digits++;
+    }
+    if (i < n && text.charAt(i) == '.') {
+      i++;
+      while (i < n && Character.isDigit(text.charAt(i))) {
+        i++;
+        digits++;
+      }
+    }
+    if (digits == 0) return 0;
+    int end = i;
+    if (i < n && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+      i++;
+      if (i < n && (text.charAt(i) == '-' || text.charAt(i) == '+')) i++;
+      if (i < n && Character.isDigit(text.charAt(i))) {
+        while (i < n && Character.isDigit(text.charAt(i))) i++;
+        end = i;
+      }
+    }
+    return Double.parseDouble(text.substring(start, end));
+  }
+
+  /** Día juliano a milisegundos, con el mismo cálculo que el driver. */
+  private static long julianToMillis(double jd, Calendar cal) {
+    double w = jd + 0.5;
+    int z = (int) w;
+    double f = w - z;
+    int a = z;
+    if (z >= 2299161) {
+      int alpha = (int) ((z - 1867216.25) / 36524.25);
+      a = z + 1 + alpha - (int) (alpha / 4.0);
+    }
+    int b = a + 1524;
+    int c = (int) ((b - 122.1) / 365.25);
+    int d = (int) (365.25 * c);
+    int e = (int) ((b - d) / 30.6001);
+    int month = e - ((e < 13.5) ? 1 : 13);
+    int year = c - ((month > 2.5) ? 4716 : 4715);
+    double jjd = b - d - (int) (30.6001 * e) + f;
+    int day = (int) jjd;
+    double hhd = jjd - day;
+    int hour = (int) (24 * hhd);
+    double mnd = (24 * hhd) - hour;
+    int minute = (int) (60 * mnd);
+    double ssd = (60 * mnd) - minute;
+    int second = (int) (60 * ssd);
+    double msd = (60 * ssd) - second;
+    cal.set(year, month - 1, day, hour, minute, second);
+    cal.set(Calendar.MILLISECOND, (int) (1000 * msd));
+    if (year < 1) {
+      cal.set(Calendar.ERA, GregorianCalendar.BC);
+      cal.set(Calendar.YEAR, -(year - 1));
+    }
+    return cal.getTimeInMillis();
+  }
+}
@@ -0,0 +1,383 @@
+package javax.database.sqlite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resultado de un query leído por columnas en buffers de tipos primitivos.
+ *
+ * Cada columna guarda sus valores en un {@link LongBuffer},
+ * {@link DoubleBuffer} o, para texto, en códigos de diccionario, más un mapa
+ * de bits de nulos. Los buffers crecen al doble y pueden estar fuera del heap;
+ * en el heap envuelven un arreglo que se obtiene sin copiar con
+ * <code>array()</code> o {@link StringColumn#codeArray()}. Se leen como
+ * máximo {@value #MAX_ROWS} filas.
+ *
+ * @see SQLiteDatabase#queryColumns(String, Type[], Object...)
+ */
+public final class ColumnarResult {
+
+  /** Tipo en el que se lee cada columna. */
+  public enum Type { LONG, DOUBLE, STRING }
+
+  /**
+   * Número máximo de filas; fuera del heap los buffers se indexan por bytes
+   * con un int.
+   */
+  public static final int MAX_ROWS = Integer.MAX_VALUE / 8;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final Column[] columns;
+  private final int rowCount;
+
+  private ColumnarResult(Column[] columns, int rowCount) {
+    this.columns = columns;
+    this.rowCount = rowCount;
+  }
+
+  /**
+   * Lee todas las filas del cursor y lo cierra.
+   *
+   * @param rs cursor a leer
+   * @param types tipo de cada columna del query
+   * @param direct true para guardar los valores fuera del heap
+   * @return el resultado por columnas
+   * @throws SQLException
+   */
+  static ColumnarResult read(ResultSet rs, Type[] types, boolean direct)
+          throws SQLException {
+    try {
+      ResultSetMetaData metaData = rs.getMetaData();
+      if (metaData.getColumnCount() != types.length) {
+        throw new IllegalArgumentException("Expected " + types.length
+                + " column types but the query has " + metaData.getColumnCount());
+      }
+      Column[] columns = new Column[types.length];
+      for (int i = 0; i < types.length; i++) {
+        String name = metaData.getColumnLabel(i + 1);
+        switch (types[i]) {
+          case LONG:
+            columns[i] = new LongColumn(name, direct);
+            break;
+          case DOUBLE:
+            columns[i] = new DoubleColumn(name, direct);
+            break;
+          default:
+            columns[i] = new StringColumn(name, direct);
+            break;
+        }
+      }
+      int row = 0;
+      int capacity = INITIAL_CAPACITY;
+      while (rs.next()) {
+        if (row == capacity) {
+          if (capacity == MAX_ROWS) {
+            throw new IllegalStateException("Query returned more than "
+                    + MAX_ROWS + " rows");
+          }
+          capacity = (int) Math.min(capacity * 2L, MAX_ROWS);
+          for (Column column : columns) column.grow(capacity);
+        }
+        for (int i = 0; i < columns.length; i++) {
+          columns[i].read(rs, i + 1, row);
+        }
+        row++;
+      }
+      for (Column column : columns) column.size = row;
+      return new ColumnarResult(columns, row);
+    } finally {
+      SQLiteDatabase.closeQuietly(rs);
+    }
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getColumnCount() {
+    return columns.length;
+  }
+
+  /** Obtiene una columna por su índice, empezando en 0. */
+  public Column getColumn(int index) {
+    return columns[index];
+  }
+
+  /** Obtiene una columna por su nombre, sin distinguir mayúsculas. */
+  public Column getColumn(String name) {
+    for (Column column : columns) {
+      if (column.name.equalsIgnoreCase(name)) return column;
+    }
+    throw new IllegalArgumentException("no such column: '" + name + "'");
+  }
+
+  public LongColumn getLongColumn(int index) {
+    return (LongColumn) columns[index];
+  }
+
+  public DoubleColumn getDoubleColumn(int index) {
+    return (DoubleColumn) columns[index];
+  }
+
+  public StringColumn getStringColumn(int index) {
+    return (StringColumn) columns[index];
+  }
+
+  private static ByteBuffer allocateDirect(int bytes) {
+    return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+  }
+
+  private static LongBuffer longs(int capacity, boolean direct) {
+    return direct ? allocateDirect(capacity * 8).asLongBuffer()
+            : LongBuffer.wrap(new long[capacity]);
+  }
+
+  private static DoubleBuffer doubles(int capacity, boolean direct) {
+    return direct ? allocateDirect(capacity * 8).asDoubleBuffer()
+            : DoubleBuffer.wrap(new double[capacity]);
+  }
+
+  private static IntBuffer ints(int capacity, boolean direct) {
+    return direct ? allocateDirect(capacity * 4).asIntBuffer()
+            : IntBuffer.wrap(new int[capacity]);
+  }
+
+  /** Columna con su mapa de bits de nulos. */
+  public static abstract class Column {
+    final String name;
+    final boolean direct;
+    long[] nulls = new long[INITIAL_CAPACITY / 64];
+    int size;
+
+    Column(String name, boolean direct) {
+      this.name = name;
+      this.direct = direct;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public abstract Type getType();
+
+    /** Número de filas. */
+    public int size() {
+      return size;
+    }
+
+    public boolean isNull(int row) {
+      checkRow(row);
+      return (nulls[row >>> 6] & (1L << row)) != 0;
+    }
+
+    void setNull(int row) {
+      nulls[row >>> 6] |= 1L << row;
+    }
+
+    void checkRow(int row) {
+      if (row < 0 || row >= size) {
+        throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+      }
+    }
+
+    void grow(int capacity) {
+      nulls = Arrays.copyOf(nulls, (capacity + 63) / 64);
+    }
+
+    abstract void read(ResultSet rs, int columnIndex, int row) throws SQLException;
+  }
+
+  /** Columna de enteros; los nulos se guardan como 0. */
+  public static final class LongColumn extends Column {
+    private LongBuffer values;
+
+    LongColumn(String name, boolean direct) {
+      super(name, direct);
+      values = longs(INITIAL_CAPACITY, direct);
+    }
+
+    @Override public Type getType() {
+      return Type.LONG;
+    }
+
+    public long get(int row) {
+      checkRow(row);
+      return values.get(row);
+    }
+
+    /** Vista de solo lectura de los valores, de 0 a {@link #size()}. */
+    public LongBuffer values() {
+      LongBuffer view = values.asReadOnlyBuffer();
+      view.limit(size);
+      return view;
+    }
+
+    /**
+     * Arreglo de los valores, sin copiar; puede ser más largo que
+     * {@link #size()}.
+     *
+     * @throws UnsupportedOperationException si la columna está fuera del heap
+     */
+    public long[] array() {
+      if (direct) throw new UnsupportedOperationException("Off-heap column");
+      return values.array();
+    }
+
+    @Override void grow(int capacity) {
+      super.grow(capacity);
+      LongBuffer src = values.duplicate();
+      src.clear();
+      values = longs(capacity, direct);
+      values.put(src);
+      values.clear();
+    }
+
+    @Override void read(ResultSet rs, int columnIndex, int row) throws SQLException {
+      long value = rs.getLong(columnIndex);
+      if (rs.wasNull()) setNull(row);
+      values.put(row, value);
+    }
+  }
+
+  /** Columna de reales; los nulos se guardan como 0. */
+  public static final class DoubleColumn extends Column {
+    private DoubleBuffer values;
+
+    DoubleColumn(String name, boolean direct) {
+      super(name, direct);
+      values = doubles(INITIAL_CAPACITY, direct);
+    }
+
+    @Override public Type getType() {
+      return Type.DOUBLE;
+    }
+
+    public double get(int row) {
+      checkRow(row);
+      return values.get(row);
+    }
+
+    /** Vista de solo lectura de los valores, de 0 a {@link #size()}. */
+    public DoubleBuffer values() {
+      DoubleBuffer view = values.asReadOnlyBuffer();
+      view.limit(size);
+      return view;
+    }
+
+    /**
+     * Arreglo de los valores, sin copiar; puede ser más largo que
+     * {@link #size()}.
+     *
+     * @throws UnsupportedOperationException si la columna está fuera del heap
+     */
+    public double[] array() {
+      if (direct) throw new UnsupportedOperationException("Off-heap column");
+      return values.array();
+    }
+
+    @Override void grow(int capacity) {
+      super.grow(capacity);
+      DoubleBuffer src = values.duplicate();
+      src.clear();
+      values = doubles(capacity, direct);
+      values.put(src);
+      values.clear();
+    }
+
+    @Override void read(ResultSet rs, int columnIndex, int row) throws SQLException {
+      double value = rs.getDouble(columnIndex);
+      if (rs.wasNull()) setNull(row);
+      values.put(row, value);
+    }
+  }
+
+  /**
+   * Columna de texto codificada con diccionario: cada fila guarda el índice
+   * de su valor en {@link #dictionary()}, o -1 si es nula.
+   */
+  public static final class StringColumn extends Column {
+    private IntBuffer codes;
+    private final List<String> dictionary = new ArrayList<String>();
+    private final Map<String, Integer> lookup = new HashMap<String, Integer>();
+
+    StringColumn(String name, boolean direct) {
+      super(name, direct);
+      codes = ints(INITIAL_CAPACITY, direct);
+    }
+
+    @Override public Type getType() {
+      return Type.STRING;
+    }
+
+    public String get(int row) {
+      int code = code(row);
+      return code < 0 ? null : dictionary.get(code);
+    }
+
+    public int code(int row) {
+      checkRow(row);
+      return codes.get(row);
+    }
+
+    /** Vista de solo lectura de los códigos, de 0 a {@link #size()}. */
+    public IntBuffer codes() {
+      IntBuffer view = codes.asReadOnlyBuffer();
+      view.limit(size);
+      return view;
+    }
+
+    /**
+     * Arreglo de los códigos, sin copiar; puede ser más largo que
+     * {@link #size()}.
+     *
+     * @throws UnsupportedOperationException si la columna está fuera del heap
+     */
+    public int[] codeArray() {
+      if (direct) throw new UnsupportedOperationException("Off-heap column");
+      return codes.array();
+    }
+
+    /** Valores distintos de la columna, en orden de aparición. */
+    public List<String> dictionary() {
+      return Collections.unmodifiableList(dictionary);
+    }
+
+    @Override void grow(int capacity) {
+      super.grow(capacity);
+      IntBuffer src = codes.duplicate();
+      src.clear();
+      codes = ints(capacity, direct);
+      codes.put(src);
+      codes.clear();
+    }
+
+    @Override void read(ResultSet rs, int columnIndex, int row) throws SQLException {
+      String value = rs.getString(columnIndex);
+      if (value == null) {
+        setNull(row);
+        codes.put(row, -1);
+        return;
+      }
+      Integer code = lookup.get(value);
+      if (code == null) {
+        code = dictionary.size();
+        dictionary.add(value);
+        lookup.put(value, code);
+      }
+      codes.put(row, code);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package javax.database.sqlite;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Query inmutable generado por {@link QueryBuilder#compile()}.
+ *
+ * Guarda el texto sql y el número de parámetros <code>?</code>, así que
+ * puede almacenarse en un campo estático y ejecutarse desde varios hilos
+ * con valores nuevos sin volver a construir el sql.
+ */
+public final class CompiledQuery {
+
+  private final String sql;
+  private final Object[] bindArgs;
+
+  CompiledQuery(String sql, Object[] bindArgs) {
+    this.sql = sql;
+    this.bindArgs = bindArgs;
+  }
+
+  /** Texto sql con parámetros <code>?</code>. */
+  public String getSql() {
+    return sql;
+  }
+
+  /** Número de parámetros <code>?</code> del query. */
+  public int getParameterCount() {
+    return bindArgs.length;
+  }
+
+  /** Valores que tenía el builder al compilarse. */
+  public Object[] getBindArgs() {
+    return bindArgs.clone();
+  }
+
+  /** Ejecuta el query con los valores que tenía el builder al compilarse. */
+  public ResultSet query(SQLiteDatabase db) throws SQLException {
+    return db.query(sql, bindArgs);
+  }
+
+  /**
+   * Ejecuta el query con valores nuevos.
+   *
+   * @param db base de datos donde se ejecuta
+   * @param args un valor por cada parámetro, en orden
+   * @return el resultado del query
+   * @throws SQLException
+   */
+  public ResultSet query(SQLiteDatabase db, Object... args) throws SQLException {
+    if (args.length != bindArgs.length) {
+      throw new IllegalArgumentException("Expected " + bindArgs.length
+              + " arguments but got " + args.length);
+    }
+    return db.query(sql, args);
+  }
+
+  @Override public String toString() {
+    return sql;
+  }
+}
@@ -0,0 +1,256 @@
+package javax.database.sqlite;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Valores de una fila para insertar o actualizar, guardados en arreglos por
+ * tipo para no crear un objeto por valor.
+ *
+ * Al enlazar se usa <code>setLong</code>, <code>setDouble</code>,
+ * <code>setString</code> o <code>setBytes</code> según el tipo con el que se
+ * guardó cada valor, sin que el driver tenga que averiguarlo. El objeto se
+ * puede reutilizar con {@link #clear()}; si se vuelven a poner las mismas
+ * columnas en el mismo orden no se crea ningún objeto por fila.
+ *
+ * <pre>
+ * ContentValues values = new ContentValues();
+ * for (Reading r : readings) {
+ *   values.clear();
+ *   values.put("sensor", r.sensor);
+ *   values.put("value", r.value);
+ *   db.insert("readings", values);
+ * }
+ * </pre>
+ *
+ * No es seguro usar la misma instancia desde varios hilos.
+ */
+public final class ContentValues {
+  private static final byte NULL = 0;
+  private static final byte LONG = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte STRING = 3;
+  private static final byte BLOB = 4;
+
+  private String[] keys;
+  private byte[] types;
+  private long[] longs;
+  private double[] doubles;
+  private Object[] objects;
+  private int size;
+  /** Número de columnas de la última fila; sus nombres siguen en keys. */
+  private int layoutSize;
+
+  /** Columnas ordenadas alfabéticamente, null si cambiaron. */
+  private String[] sortedKeys;
+  /** Posición en keys de cada columna de sortedKeys. */
+  private int[] order;
+  /**
+   * Última plantilla usada con estos valores y el sortedKeys con el que se
+   * obtuvo; la usa {@link SqlTemplates}.
+   */
+  SqlTemplates.Template template;
+  String[] templateKeys;
+
+  public ContentValues() {
+    this(8);
+  }
+
+  /** @param capacity número de columnas esperado */
+  public ContentValues(int capacity) {
+    keys = new String[capacity];
+    types = new byte[capacity];
+    longs = new long[capacity];
+    doubles = new double[capacity];
+    objects = new Object[capacity];
+  }
+
+  public void put(String key, long value) {
+    int i = slot(key);
+    types[i] = LONG;
+    longs[i] = value;
+    objects[i] = null;
+  }
+
+  public void put(String key, int value) {
+    put(key, (long) value);
+  }
+
+  /** SQLite no tiene tipo booleano: se guarda como 1 o 0. */
+  public void put(String key, boolean value) {
+    put(key, value ? 1L : 0L);
+  }
+
+  public void put(String key, double value) {
+    int i = slot(key);
+    types[i] = DOUBLE;
+    doubles[i] = value;
+    objects[i] = null;
+  }
+
+  /** @param value valor, null equivale a {@link #putNull(String)} */
+  public void put(String key, String value) {
+    int i = slot(key);
+    types[i] = (value == null) ? NULL : STRING;
+    objects[i] = value;
+  }
+
+  /** @param value valor, null equivale a {@link #putNull(String)} */
+  public void put(String key, byte[] value) {
+    int i = slot(key);
+    types[i] = (value == null) ? NULL : BLOB;
+    objects[i] = value;
+  }
+
+  public void putNull(String key) {
+    int i = slot(key);
+    types[i] = NULL;
+    objects[i] = null;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean containsKey(String key) {
+    return indexOf(key) >= 0;
+  }
+
+  /**
+   * Valor de una columna; los números se devuelven como Long o Double.
+   *
+   * @return el valor o null si es NULL o no existe
+   */
+  public Object get(String key) {
+    int i = indexOf(key);
+    return (i < 0) ? null : value(i);
+  }
+
+  /**
+   * Quita los valores; los nombres de las columnas se conservan para
+   * reconocer la siguiente fila si tiene las mismas.
+   */
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      objects[i] = null;
+    }
+    size = 0;
+  }
+
+  /** Columnas ordenadas alfabéticamente; el arreglo no se debe modificar. */
+  String[] sortedKeys() {
+    if (sortedKeys == null || size != layoutSize) {
+      layoutSize = size;
+      String[] sorted = Arrays.copyOf(keys, size);
+      Arrays.sort(sorted);
+      int[] positions = new int[size];
+      for (int i = 0; i < size; i++) {
+        positions[i] = indexOf(sorted[i]);
+      }
+      order = positions;
+      sortedKeys = sorted;
+    }
+    return sortedKeys;
+  }
+
+  /**
+   * Enlaza los valores en el orden de {@link #sortedKeys()}, a partir del
+   * parámetro <code>offset + 1</code>.
+   */
+  void bind(PreparedStatement ps, int offset) throws SQLException {
+    sortedKeys();
+    for (int i = 0; i < size; i++) {
+      final int j = order[i];
+      final int index = offset + i + 1;
+      switch (types[j]) {
+        case LONG:
+          ps.setLong(index, longs[j]);
+          break;
+        case DOUBLE:
+          ps.setDouble(index, doubles[j]);
+          break;
+        case STRING:
+          ps.setString(index, (String) objects[j]);
+          break;
+        case BLOB:
+          ps.setBytes(index, (byte[]) objects[j]);
+          break;
+        default:
+          ps.setNull(index, Types.NULL);
+      }
+    }
+  }
+
+  /**
+   * Valores en el orden de {@link #sortedKeys()} seguidos de
+   * <code>extraArgs</code>; solo para el log.
+   */
+  Object[] toBindArgs(Object[] extraArgs) {
+    sortedKeys();
+    int extra = (extraArgs == null) ? 0 : extraArgs.length;
+    Object[] args = new Object[size + extra];
+    for (int i = 0; i < size; i++) {
+      args[i] = value(order[i]);
+    }
+    if (extra > 0) System.arraycopy(extraArgs, 0, args, size, extra);
+    return args;
+  }
+
+  private Object value(int i) {
+    switch (types[i]) {
+      case LONG:
+        return longs[i];
+      case DOUBLE:
+        return doubles[i];
+      default:
+        return objects[i];
+    }
+  }
+
+  private int indexOf(String key) {
+    for (int i = 0; i < size; i++) {
+      if (keys[i].equals(key)) return i;
+    }
+    return -1;
+  }
+
+  /** Posición donde se guarda el valor de la columna. */
+  private int slot(String key) {
+    if (key == null) throw new NullPointerException("key");
+    int i = indexOf(key);
+    if (i >= 0) return i;
+    i = size++;
+    // Tras clear() la fila suele repetir las columnas en el mismo orden.
+    if (i < layoutSize && keys[i].equals(key)) return i;
+    if (i == keys.length) grow();
+    keys[i] = key;
+    sortedKeys = null;
+    return i;
+  }
+
+  private void grow() {
+    int capacity = Math.max(8, keys.length * 2);
+    keys = Arrays.copyOf(keys, capacity);
+    types = Arrays.copyOf(types, capacity);
+    longs = Arrays.copyOf(longs, capacity);
+    doubles = Arrays.copyOf(doubles, capacity);
+    objects = Arrays.copyOf(objects, capacity);
+  }
+
+  @Override public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append('{');
+    for (int i = 0; i < size; i++) {
+      if (i > 0) sb.append(", ");
+      sb.append(keys[i]).append('=');
+      sb.append((types[i] == BLOB) ? "<blob>" : String.valueOf(value(i)));
+    }
+    return sb.append('}').toString();
+  }
+}
@@ -1,9 +1,38 @@
 package javax.database.sqlite;
 
+import java.io.PrintStream;
+
 public final class Log {
 
-  private static boolean debuggable;
-  
+  public static final int INFO = 4;
+  public static final int ERROR = 6;
+
+  /** Destino de los mensajes de log. */
+  public interface Sink {
+    void write(int priority, String tag, String msg, Throwable tr);
+  }
+
+  /** Escribe en la consola: INFO en System.out y ERROR en System.err. */
+  public static final Sink CONSOLE = new Sink() {
+    @Override public void write(int priority, String tag, String msg, Throwable tr) {
+      PrintStream out = (priority >= ERROR) ? System.err : System.out;
+      if (tr == null) {
+        out.printf("[%s]: %s\n", tag, msg);
+      } else {
+        out.printf("[%s]: %s => %s\n", tag,
+                tr.getClass().getCanonicalName(), msg);
+      }
+    }
+  };
+
+  private static volatile boolean debuggable;
+  private static volatile Sink sink = CONSOLE;
+
+  /**
+   * Indica si el log está activo. Los mensajes costosos de construir deben
+   * crearse solo si devuelve true:
+   * <pre>if (Log.isDebuggable()) Log.i(TAG, sql + " " + args);</pre>
+   */
   public static boolean isDebuggable() {
     return debuggable;
   }
@@ -11,34 +40,45 @@ public final class Log {
   public static void setDebuggable(boolean debuggable) {
     Log.debuggable = debuggable;
   }
-  
+
+  /**
+   * Cambia el destino de los mensajes, p.ej. por un {@link AsyncLogSink}.
+   *
+   * @param sink destino, null restablece {@link #CONSOLE}
+   */
+  public static void setSink(Sink sink) {
+    Log.sink = (sink == null) ? CONSOLE : sink;
+  }
+
+  public static Sink getSink() {
+    return sink;
+  }
+
   public static void i(String tag, String msg) {
     if (isDebuggable()) {
-      System.out.printf("[%s]: %s\n", tag, msg);
+      sink.write(INFO, tag, msg, null);
     }
   }
-  
+
   public static void i(String tag, String msg, Throwable tr) {
     if (isDebuggable()) {
-      System.out.printf("[%s]: %s => %s\n", tag, 
-              tr.getClass().getCanonicalName(), msg);
+      sink.write(INFO, tag, msg, tr);
     }
   }
 
    public static void e(String tag, String msg) {
     if (isDebuggable()) {
-      System.err.printf("[%s]: %s\n", tag, msg);
+      sink.write(ERROR, tag, msg, null);
     }
   }
-  
+
   public static void e(String tag, String msg, Throwable tr) {
     if (isDebuggable()) {
-      System.err.printf("[%s]: %s => %s\n", tag, 
-              tr.getClass().getCanonicalName(), msg);
+      sink.write(ERROR, tag, msg, tr);
     }
   }
-  
+
   private Log() {
   }
-  
+
 }
@@ -0,0 +1,330 @@
+package javax.database.sqlite;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.DB;
+
+/**
+ * Copia en línea de la base de datos con la API de backup de SQLite, sin
+ * detener a los escritores.
+ *
+ * La copia se hace desde una conexión aparte al mismo archivo, así la
+ * conexión de la aplicación sigue libre. En modo WAL esa conexión mantiene
+ * una transacción de lectura durante toda la copia: el resultado es una
+ * instantánea consistente, las escrituras de otras conexiones no reinician
+ * la copia y los escritores no se bloquean. En los demás modos de journal
+ * cada escritura de otra conexión hace que la copia vuelva a empezar; se
+ * cuentan en {@link Result#getRestartCount()}.
+ *
+ * La copia avanza de a {@link #pagesPerStep(int)} páginas, con una pausa de
+ * {@link #sleepMillis(long)} entre pasos para limitar el uso de disco. Los
+ * drivers anteriores a sqlite-jdbc 3.40 copian todo en un solo paso y no
+ * informan avance; ver {@link #isThrottlingSupported()}. Con ellos la copia
+ * de una base de datos en archivo requiere modo WAL: en otro modo de journal
+ * los escritores quedarían bloqueados durante toda la copia.
+ *
+ * <pre>
+ * db.backup()
+ *     .pagesPerStep(1000)
+ *     .sleepMillis(10)
+ *     .backupTo(new File("databases/tests-snapshot.db"));
+ * </pre>
+ *
+ * @see SQLiteDatabase#backup()
+ */
+public final class OnlineBackup {
+  private static final String TAG = "OnlineBackup";
+
+  /** Páginas por paso si no se indica otra cosa. */
+  public static final int DEFAULT_PAGES_PER_STEP = 100;
+
+  /** Espera antes de reintentar un paso si la base de datos está ocupada. */
+  private static final int BUSY_SLEEP = 100;
+
+  /**
+   * <code>DB.backup(dbName, destFile, observer, sleepTimeMillis, nTimeouts,
+   * pagesPerStep)</code>, null si el driver no lo tiene.
+   */
+  private static final Method STEPPED_BACKUP = steppedBackup();
+
+  /** Recibe el avance de la copia. */
+  public interface ProgressListener {
+    /**
+     * @param remainingPages páginas que faltan por copiar
+     * @param pageCount páginas de la base de datos de origen
+     */
+    void onProgress(int remainingPages, int pageCount);
+  }
+
+  private final SQLiteDatabase db;
+  private int pagesPerStep = DEFAULT_PAGES_PER_STEP;
+  private long sleepMillis;
+  private ProgressListener listener;
+  /** Si se indicó pagesPerStep o sleepMillis. */
+  private boolean throttled;
+
+  OnlineBackup(SQLiteDatabase db) {
+    this.db = db;
+  }
+
+  /**
+   * Páginas que se copian en cada paso, antes de la pausa y del aviso al
+   * listener.
+   */
+  public OnlineBackup pagesPerStep(int pages) {
+    if (pages < 1) throw new IllegalArgumentException("pages < 1");
+    this.pagesPerStep = pages;
+    this.throttled = true;
+    return this;
+  }
+
+  /**
+   * Pausa entre pasos de la copia. En modo WAL no retrasa a los escritores,
+   * pero mientras dura la copia el checkpoint no puede pasar de la
+   * instantánea y el WAL crece.
+   */
+  public OnlineBackup sleepMillis(long sleepMillis) {
+    if (sleepMillis < 0) throw new IllegalArgumentException("sleepMillis < 0");
+    this.sleepMillis = sleepMillis;
+    this.throttled = true;
+    return this;
+  }
+
+  /**
+   * El listener se llama después de cada paso, en el hilo que copia, y al
+   * terminar con <code>remainingPages</code> en 0.
+   */
+  public OnlineBackup listener(ProgressListener listener) {
+    this.listener = listener;
+    return this;
+  }
+
+  /**
+   * Indica si el driver copia por pasos. Si no, la copia se hace en un solo
+   * paso y {@link #backupTo(File)} no admite {@link #pagesPerStep(int)},
+   * {@link #sleepMillis(long)} ni un listener.
+   */
+  public static boolean isThrottlingSupported() {
+    return STEPPED_BACKUP != null;
+  }
+
+  /**
+   * Copia la base de datos a <code>destination</code>, reemplazando su
+   * contenido.
+   *
+   * Las bases de datos en memoria no se pueden abrir dos veces; en ese caso
+   * se copian con su propia conexión, que queda ocupada hasta terminar.
+   *
+   * @throws IllegalStateException si el driver no copia por pasos y se
+   * indicaron opciones de pasos o un listener, o la base de datos en archivo
+   * no está en modo WAL
+   * @throws SQLException si falla la copia
+   */
+  public Result backupTo(File destination) throws SQLException {
+    if (!isThrottlingSupported() && (throttled || listener != null)) {
+      throw new IllegalStateException("The SQLite driver does not copy in steps;"
+              + " pagesPerStep, sleepMillis and listener are not supported");
+    }
+    final long start = System.nanoTime();
+    final Connection source = openSource();
+    final boolean side = source != db.connection();
+    try {
+      final boolean wal = side
+              && "wal".equalsIgnoreCase(queryString(source, "PRAGMA journal_mode"));
+      if (side && !wal && !isThrottlingSupported()) {
+        throw new IllegalStateException("Backup in a single step requires WAL");
+      }
+      if (wal) {
+        // La transacción de lectura fija la instantánea que se copia.
+        source.setAutoCommit(Boolean.FALSE);
+        queryString(source, "SELECT count(*) FROM sqlite_master");
+      }
+      final Progress progress = new Progress(Boolean.TRUE);
+      progress.pageCount = Integer.parseInt(queryString(source, "PRAGMA page_count"));
+      final int rc = backup(((SQLiteConnection) source).getDatabase(),
+              destination.getPath(), progress);
+      if (rc != 0) {
+        throw new SQLException("Backup to " + destination + " failed", null, rc);
+      }
+      progress.done();
+      Result result = new Result(progress.pageCount, progress.restarts,
+              System.nanoTime() - start);
+      if (Log.isDebuggable()) Log.i(TAG, "Backup to " + destination + ": " + result);
+      return result;
+    } finally {
+      if (side) SQLiteDatabase.closeQuietly(source);
+    }
+  }
+
+  /**
+   * Reemplaza el contenido de la base de datos con el de
+   * <code>source</code>, por la conexión de la base de datos. Durante la
+   * restauración la base de datos queda bloqueada para escritura, por eso no
+   * se hacen pausas. Después se limpian las caches de sentencias y de
+   * resultados.
+   *
+   * @throws IllegalStateException si hay una transacción en curso
+   * @throws SQLException si no existe el archivo o falla la copia
+   */
+  public Result restoreFrom(File source) throws SQLException {
+    if (db.inTransaction()) {
+      throw new IllegalStateException("restoreFrom called inside a transaction");
+    }
+    if (!source.isFile()) {
+      throw new SQLException("Backup file not found: " + source);
+    }
+    final long start = System.nanoTime();
+    final Progress progress = new Progress(Boolean.FALSE);
+    final int rc = ((SQLiteConnection) db.connection()).getDatabase()
+            .restore("main", source.getPath(), progress);
+    db.clearStatementCache();
+    final QueryCache cache = db.getQueryCache();
+    if (cache != null) cache.clear();
+    if (rc != 0) {
+      throw new SQLException("Restore from " + source + " failed", null, rc);
+    }
+    progress.pageCount = Integer.parseInt(db.getPragma("page_count"));
+    progress.done();
+    Result result = new Result(progress.pageCount, progress.restarts,
+            System.nanoTime() - start);
+    if (Log.isDebuggable()) Log.i(TAG, "Restore from " + source + ": " + result);
+    return result;
+  }
+
+  private int backup(DB database, String path, Progress progress)
+          throws SQLException {
+    if (STEPPED_BACKUP == null) {
+      return database.backup("main", path, progress);
+    }
+    try {
+      return (Integer) STEPPED_BACKUP.invoke(database, "main", path, progress,
+              BUSY_SLEEP, PragmaProfile.BUSY_TIMEOUT / BUSY_SLEEP, pagesPerStep);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+      throw new SQLException("Backup failed", e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new SQLException("Backup failed", e);
+    }
+  }
+
+  private static Method steppedBackup() {
+    try {
+      return DB.class.getMethod("backup", String.class, String.class,
+              DB.ProgressObserver.class, int.class, int.class, int.class);
+    } catch (NoSuchMethodException e) {
+      // sqlite-jdbc anterior a 3.40.
+      return null;
+    }
+  }
+
+  /**
+   * Conexión aparte al mismo archivo, o la de la base de datos si está en
+   * memoria.
+   */
+  private Connection openSource() throws SQLException {
+    String url = db.connection().getMetaData().getURL();
+    if (url == null || url.endsWith(":memory:") || url.equals("jdbc:sqlite:")
+            || url.contains("mode=memory")) {
+      return db.connection();
+    }
+    SQLiteConfig config = new SQLiteConfig();
+    config.setReadOnly(true);
+    config.setBusyTimeout(PragmaProfile.BUSY_TIMEOUT);
+    return config.createConnection(url);
+  }
+
+  private static String queryString(Connection conn, String sql) throws SQLException {
+    try (Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery(sql)) {
+      return rs.next() ? rs.getString(1) : null;
+    }
+  }
+
+  /** Resultado de una copia o una restauración. */
+  public static final class Result {
+    private final int pageCount;
+    private final int restartCount;
+    private final long elapsedNanos;
+
+    Result(int pageCount, int restartCount, long elapsedNanos) {
+      this.pageCount = pageCount;
+      this.restartCount = restartCount;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /** Páginas de la base de datos copiada. */
+    public int getPageCount() {
+      return pageCount;
+    }
+
+    /** Veces que la copia volvió a empezar porque otra conexión escribió. */
+    public int getRestartCount() {
+      return restartCount;
+    }
+
+    public long getElapsedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    @Override public String toString() {
+      return pageCount + " pages, " + restartCount + " restarts, "
+              + getElapsedMillis() + " ms";
+    }
+  }
+
+  /**
+   * Recibe el avance del driver en el hilo que copia: lo informa al listener
+   * y hace las pausas. No debe lanzar excepciones porque lo llama código
+   * nativo.
+   */
+  private final class Progress implements DB.ProgressObserver {
+    private final boolean throttle;
+    private int lastRemaining = Integer.MAX_VALUE;
+    private boolean interrupted;
+    int pageCount;
+    int restarts;
+
+    Progress(boolean throttle) {
+      this.throttle = throttle;
+    }
+
+    @Override public void progress(int remaining, int pageCount) {
+      if (remaining > lastRemaining) restarts++;
+      lastRemaining = remaining;
+      this.pageCount = pageCount;
+      notifyListener(remaining, pageCount);
+      if (throttle && sleepMillis > 0 && remaining > 0 && !interrupted) {
+        try {
+          Thread.sleep(sleepMillis);
+        } catch (InterruptedException e) {
+          // La copia no se puede cancelar; se termina sin pausas.
+          interrupted = true;
+        }
+      }
+    }
+
+    /** Aviso final; el driver no siempre informa el último paso. */
+    void done() {
+      if (lastRemaining != 0) notifyListener(0, pageCount);
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void notifyListener(int remaining, int pageCount) {
+      final ProgressListener l = listener;
+      if (l == null) return;
+      try {
+        l.onProgress(remaining, pageCount);
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Error in backup listener", e);
+      }
+    }
+  }
+}
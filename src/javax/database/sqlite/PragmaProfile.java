@@ -0,0 +1,159 @@
+package javax.database.sqlite;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConfig.JournalMode;
+import org.sqlite.SQLiteConfig.SynchronousMode;
+import org.sqlite.SQLiteConfig.TempStore;
+
+/**
+ * Perfiles de PRAGMAs de rendimiento que se aplican al abrir la conexión.
+ *
+ * En las conexiones de solo lectura no se aplican los PRAGMAs que escriben
+ * en la base de datos (journal_mode, synchronous y page_size): SQLite no
+ * puede cambiarlos sin escribir y la conexión fallaría al abrirse.
+ *
+ * @see SQLiteOpenHelper#setPragmaProfile(PragmaProfile)
+ */
+public enum PragmaProfile {
+
+  /** Journal clásico y fsync completo: ningún commit se pierde. */
+  DURABLE(JournalMode.DELETE, SynchronousMode.FULL, -2000, 0L,
+          TempStore.DEFAULT),
+
+  /** WAL con fsync solo en los checkpoints: buen equilibrio general. */
+  BALANCED_WAL(JournalMode.WAL, SynchronousMode.NORMAL, -16000,
+          64L * 1024 * 1024, TempStore.MEMORY),
+
+  /**
+   * Cargas masivas: sin fsync y journal en memoria. Un corte de luz puede
+   * corromper la base de datos, úselo solo si se puede volver a cargar.
+   */
+  BULK_LOAD(JournalMode.MEMORY, SynchronousMode.OFF, -64000,
+          256L * 1024 * 1024, TempStore.MEMORY),
+
+  /** Mayormente lecturas: WAL, cache grande y mmap de 1 GiB. */
+  READ_MOSTLY(JournalMode.WAL, SynchronousMode.NORMAL, -32000,
+          1024L * 1024 * 1024, TempStore.MEMORY);
+
+  /** Tamaño de página, solo tiene efecto al crear la base de datos. */
+  public static final int PAGE_SIZE = 4096;
+  /** Tiempo de espera en milisegundos cuando la base de datos está ocupada. */
+  public static final int BUSY_TIMEOUT = 5000;
+
+  /** PRAGMAs que se omiten en las conexiones de solo lectura. */
+  private static final Set<String> WRITE_PRAGMAS = Collections.unmodifiableSet(
+          new HashSet<String>(Arrays.asList("journal_mode", "synchronous",
+                  "page_size")));
+
+  private final JournalMode journalMode;
+  private final SynchronousMode synchronous;
+  private final int cacheSize;
+  private final long mmapSize;
+  private final TempStore tempStore;
+
+  PragmaProfile(JournalMode journalMode, SynchronousMode synchronous,
+          int cacheSize, long mmapSize, TempStore tempStore) {
+    this.journalMode = journalMode;
+    this.synchronous = synchronous;
+    this.cacheSize = cacheSize;
+    this.mmapSize = mmapSize;
+    this.tempStore = tempStore;
+  }
+
+  public JournalMode getJournalMode() {
+    return journalMode;
+  }
+
+  public SynchronousMode getSynchronous() {
+    return synchronous;
+  }
+
+  /** Tamaño de la cache de páginas, negativo indica KiB. */
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  public long getMmapSize() {
+    return mmapSize;
+  }
+
+  public TempStore getTempStore() {
+    return tempStore;
+  }
+
+  /** Si el perfil usa WAL, el único modo que admite el pool de conexiones. */
+  public boolean isWal() {
+    return journalMode == JournalMode.WAL;
+  }
+
+  /** Establece los PRAGMAs del perfil en la configuración de la conexión. */
+  public void applyTo(SQLiteConfig config) {
+    applyTo(config, true);
+  }
+
+  /**
+   * Establece los PRAGMAs del perfil en la configuración de la conexión.
+   *
+   * @param config configuración de la conexión
+   * @param writable false si la conexión es de solo lectura: se omiten
+   * journal_mode, synchronous y page_size
+   */
+  public void applyTo(SQLiteConfig config, boolean writable) {
+    if (writable) {
+      config.setJournalMode(journalMode);
+      config.setSynchronous(synchronous);
+      config.setPageSize(PAGE_SIZE);
+    }
+    config.setCacheSize(cacheSize);
+    config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(mmapSize));
+    config.setTempStore(tempStore);
+    config.setBusyTimeout(BUSY_TIMEOUT);
+  }
+
+  /**
+   * Valores que deben devolver los PRAGMAs del perfil, tal como los
+   * reporta SQLite.
+   */
+  public Map<String, String> expectedValues() {
+    Map<String, String> values = new LinkedHashMap<String, String>();
+    values.put("journal_mode", journalMode.name().toLowerCase(Locale.ROOT));
+    values.put("synchronous", String.valueOf(synchronous.ordinal()));
+    values.put("cache_size", String.valueOf(cacheSize));
+    values.put("mmap_size", String.valueOf(mmapSize));
+    values.put("temp_store", String.valueOf(tempStore.ordinal()));
+    values.put("page_size", String.valueOf(PAGE_SIZE));
+    values.put("busy_timeout", String.valueOf(BUSY_TIMEOUT));
+    return values;
+  }
+
+  /**
+   * Compara los valores efectivos de la conexión con los del perfil. En una
+   * conexión de solo lectura no se comparan journal_mode, synchronous ni
+   * page_size.
+   *
+   * @param db base de datos a verificar
+   * @return los PRAGMAs que difieren, con el valor efectivo; vacío si la
+   * conexión cumple el perfil
+   * @throws SQLException
+   */
+  public Map<String, String> verify(SQLiteDatabase db) throws SQLException {
+    Map<String, String> mismatches = new LinkedHashMap<String, String>();
+    final boolean readOnly = db.isReadOnly();
+    for (Map.Entry<String, String> entry : expectedValues().entrySet()) {
+      if (readOnly && WRITE_PRAGMAS.contains(entry.getKey())) continue;
+      String actual = db.getPragma(entry.getKey());
+      if (!entry.getValue().equalsIgnoreCase(actual)) {
+        mismatches.put(entry.getKey(), actual);
+      }
+    }
+    return mismatches;
+  }
+}
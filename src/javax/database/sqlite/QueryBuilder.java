@@ -128,16 +128,35 @@ public class QueryBuilder {
     return this;
   }
 
-  /** Construye y ejecuta el query. */
+  /** Construye y ejecuta el query como sentencia preparada. */
   public ResultSet get() throws SQLException {
     if (this.db == null) throw new SQLException("SQLiteDatabase == null");
-    return this.db.query(toString());
+    return this.db.query(toString(), getBindArgs());
   }
   public ResultSet get(SQLiteDatabase db) throws SQLException {
     this.db = db;
     return this.get();
   }
  
+  /**
+   * Genera el sql una sola vez en un query inmutable que puede reutilizarse
+   * con otros valores.
+   */
+  public CompiledQuery compile() {
+    return new CompiledQuery(toString(), getBindArgs());
+  }
+
+  /**
+   * Valores de los parámetros <code>?</code> del query, en el orden en que
+   * aparecen: primero los del subquery del FROM y luego los del WHERE.
+   */
+  public Object[] getBindArgs() {
+    List<Object> args = new ArrayList<Object>();
+    if (this.from != null) args.addAll(Arrays.asList(this.from.getBindArgs()));
+    if (this.where != null) args.addAll(this.where.args);
+    return args.toArray();
+  }
+ 
   /** Compilamos el query. */
   @Override public String toString() {
     // SELECT:
@@ -186,6 +205,7 @@ public class QueryBuilder {
   public static class Where {
     private final QueryBuilder qs;
     private final StringBuilder sql = new StringBuilder();
+    private final List<Object> args = new ArrayList<Object>();
     private int countClauses = 0;
     
     public Where(QueryBuilder querySelect) {
@@ -214,9 +234,9 @@ public class QueryBuilder {
     public Where clause(String columnName, String op, Object value) {
       sql.append(" ")
          .append(columnName.trim())
-         .append(" ").append(op.trim()).append(" ")
-         .append(toValue(value))
+         .append(" ").append(op.trim()).append(" ?")
       ;
+      args.add(value);
       countClauses++;
       return this;
     }
@@ -228,11 +248,10 @@ public class QueryBuilder {
     public Where between(String columnName, Object low, Object high) {
       sql.append(" ")
          .append(columnName)
-         .append(" BETWEEN ")
-         .append(toValue(low))
-         .append(" AND ")
-         .append(toValue(high))
+         .append(" BETWEEN ? AND ?")
       ;
+      args.add(low);
+      args.add(high);
       countClauses++;
       return this;
     }
@@ -242,8 +261,8 @@ public class QueryBuilder {
       sql.append(columnName);
       sql.append(" IN (");
       for (int i = 0; i < values.length; i++) {
-        if (i > 0) sql.append(", ");
-        sql.append(toValue(values[i]));
+        sql.append((i > 0) ? ", ?" : "?");
+        args.add(values[i]);
       }
       sql.append(")");
       countClauses++;
@@ -257,6 +276,7 @@ public class QueryBuilder {
          .append(qs.toString())
          .append(")")
       ;
+      args.addAll(Arrays.asList(qs.getBindArgs()));
       countClauses++;
       return this;
     }
@@ -267,6 +287,7 @@ public class QueryBuilder {
          .append(qs.toString())
          .append(")")
       ;
+      args.addAll(Arrays.asList(qs.getBindArgs()));
       countClauses++;
       return this;
     }
@@ -275,6 +296,20 @@ public class QueryBuilder {
       sql.append(str);
       return this;
     }
+
+    /**
+     * Agrega texto sql con parámetros <code>?</code> y sus valores.
+     */
+    public Where str(String str, Object... values) {
+      sql.append(str);
+      args.addAll(Arrays.asList(values));
+      return this;
+    }
+
+    /** Valores de los parámetros <code>?</code> de la cláusula. */
+    public Object[] getBindArgs() {
+      return args.toArray();
+    }
     
     public QueryBuilder endWhere() {
       return qs;
@@ -288,7 +323,7 @@ public class QueryBuilder {
       if (value == null) {
         return "NULL ";
       } else {
-        String newValue = value.toString().replace("'", "\\'");
+        String newValue = value.toString().replace("'", "''");
         return new StringBuilder(newValue.length() + 2)
                 .append('\'')
                 .append(newValue)
@@ -0,0 +1,551 @@
+package javax.database.sqlite;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Cache de resultados de queries, por sql y valores.
+ *
+ * Los resultados se guardan en memoria como arreglos de valores y cada
+ * acierto devuelve un cursor propio de solo lectura sobre los mismos datos,
+ * que convierte los valores igual que el driver.
+ * La cache se limita por número de queries y por peso (filas por columnas)
+ * y descarta primero el menos usado; cada resultado vence tras su tiempo de
+ * vida. Un resultado que pesa más que el límite no se guarda: sus filas se
+ * copian solo hasta pasar el límite y el resto se lee del cursor original.
+ *
+ * Un resultado depende de las tablas que aparecen tras FROM y JOIN; una
+ * vista se sustituye por las tablas de su definición, leída de
+ * <code>sqlite_master</code>. Las vistas temporales y las de bases de datos
+ * adjuntas no se conocen: un query sobre ellas solo se invalida con las
+ * escrituras que nombran a la vista. Cuando una conexión modifica una de
+ * las tablas el resultado se descarta al confirmarse el cambio. Las modificaciones se detectan con el update hook de SQLite,
+ * que también ve las de sentencias sql escritas a mano y triggers, y con el
+ * texto de las sentencias INSERT, UPDATE y DELETE. Un CREATE, DROP o ALTER
+ * vacía la cache. No se guardan queries dentro de una transacción ni queries
+ * con funciones no deterministas como <code>random()</code>.
+ *
+ * Una misma cache se puede compartir entre las conexiones de una base de
+ * datos; los cambios hechos por otros procesos no se detectan.
+ *
+ * <pre>
+ * helper.setQueryCache(new QueryCache(500, 1000000, 10, TimeUnit.MINUTES));
+ * </pre>
+ */
+public class QueryCache implements QueryCacheMXBean {
+
+  private static final Set<String> FROM_STOP_WORDS = new HashSet<String>(Arrays.asList(
+          "WHERE", "GROUP", "ORDER", "LIMIT", "HAVING", "JOIN", "INNER", "LEFT",
+          "RIGHT", "FULL", "CROSS", "NATURAL", "OUTER", "ON", "USING", "UNION",
+          "EXCEPT", "INTERSECT", "WINDOW", "INDEXED", "NOT"));
+
+  private static final Set<String> NON_DETERMINISTIC = new HashSet<String>(Arrays.asList(
+          "RANDOM", "RANDOMBLOB", "CHANGES", "TOTAL_CHANGES", "LAST_INSERT_ROWID",
+          "CURRENT_TIME", "CURRENT_DATE", "CURRENT_TIMESTAMP"));
+
+  private final int maxEntries;
+  private final long maxWeight;
+  private final long ttlNanos;
+
+  private final LinkedHashMap<Key, Entry> entries =
+          new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+  private final Map<String, Set<Key>> keysByTable = new HashMap<String, Set<Key>>();
+  private final Map<String, Long> tableVersions = new HashMap<String, Long>();
+  /** Aumenta con cada {@link #clear()}, invalida lo que se estaba leyendo. */
+  private long epoch;
+  /**
+   * Tablas de las que depende cada vista, null como valor si la vista no se
+   * puede guardar; el mapa es null mientras no se lean las vistas.
+   */
+  private Map<String, Set<String>> viewTables;
+  private long weight;
+
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+  private long expiredCount;
+  private long invalidationCount;
+
+  private ObjectName objectName;
+
+  /**
+   * @param maxEntries número máximo de queries
+   * @param maxWeight peso máximo, en filas por columnas, de todos los resultados
+   * @param ttl tiempo de vida de cada resultado, 0 para que no venza
+   * @param unit unidad de <code>ttl</code>
+   */
+  public QueryCache(int maxEntries, long maxWeight, long ttl, TimeUnit unit) {
+    if (maxEntries < 1 || maxWeight < 1) {
+      throw new IllegalArgumentException("maxEntries and maxWeight must be > 0");
+    }
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+    this.ttlNanos = unit.toNanos(ttl);
+  }
+
+  /**
+   * Registra las estadísticas en el servidor JMX de la plataforma como
+   * <code>javax.database.sqlite:type=QueryCache,name=[name]</code>.
+   *
+   * @param name nombre que identifica la cache
+   * @throws JMException
+   */
+  public synchronized void register(String name) throws JMException {
+    objectName = new ObjectName("javax.database.sqlite:type=QueryCache,name="
+            + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+  }
+
+  /** Quita las estadísticas del servidor JMX. */
+  public synchronized void unregister() throws JMException {
+    if (objectName != null) {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      objectName = null;
+    }
+  }
+
+  /**
+   * Busca un resultado. Los fallos se cuentan en {@link #begin}, solo para
+   * los queries que se pueden guardar.
+   *
+   * @return un cursor sobre el resultado o null si no está en la cache
+   */
+  synchronized ResultSet get(String sql, Object[] bindArgs) throws SQLException {
+    Key key = new Key(sql, bindArgs);
+    Entry entry = entries.get(key);
+    if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.expiresAt > 0) {
+      remove(key);
+      expiredCount++;
+      entry = null;
+    }
+    if (entry == null) return null;
+    hitCount++;
+    return new CachedResultSet(entry.rows, null);
+  }
+
+  /**
+   * Prepara la lectura de un query que no estaba en la cache, antes de
+   * ejecutarlo.
+   *
+   * @return el ticket para {@link #put}, o null si el query no se puede
+   * guardar
+   */
+  synchronized Ticket begin(String sql, Object[] bindArgs) {
+    if (!SQLiteDatabase.startsWithKeyword(sql, "SELECT")
+            && !SQLiteDatabase.startsWithKeyword(sql, "WITH")) {
+      return null;
+    }
+    Set<String> tables = tablesOf(sql);
+    if (tables == null || tables.isEmpty() || viewTables == null) return null;
+    for (String name : tables.toArray(new String[tables.size()])) {
+      if (!viewTables.containsKey(name)) continue;
+      Set<String> base = viewTables.get(name);
+      if (base == null) return null;
+      tables.addAll(base);
+    }
+    String[] names = tables.toArray(new String[tables.size()]);
+    long[] versions = new long[names.length];
+    for (int i = 0; i < names.length; i++) {
+      versions[i] = version(names[i]);
+    }
+    missCount++;
+    return new Ticket(new Key(sql, bindArgs), names, versions, epoch);
+  }
+
+  /**
+   * Lee el resultado completo, lo guarda si sus tablas no cambiaron desde
+   * {@link #begin} y lo cierra. Si pesa más que el límite deja de copiarlo y
+   * no lo guarda.
+   *
+   * @return un cursor sobre el resultado
+   */
+  ResultSet put(Ticket ticket, ResultSet rs) throws SQLException {
+    final CachedResultSet.Rows rows;
+    try {
+      rows = CachedResultSet.Rows.copy(rs, maxWeight);
+    } catch (SQLException | RuntimeException e) {
+      SQLiteDatabase.closeQuietly(rs);
+      throw e;
+    }
+    // Las filas copiadas se devuelven primero y el resto se lee del cursor.
+    if (rows.truncated) return new CachedResultSet(rows, rs);
+    SQLiteDatabase.closeQuietly(rs);
+    final long entryWeight = rows.weight();
+    synchronized (this) {
+      if (entryWeight <= maxWeight && isCurrent(ticket)) {
+        remove(ticket.key);
+        Entry entry = new Entry(rows, ticket.tables, entryWeight,
+                System.nanoTime() + ttlNanos);
+        entries.put(ticket.key, entry);
+        weight += entryWeight;
+        for (String table : ticket.tables) {
+          Set<Key> keys = keysByTable.get(table);
+          if (keys == null) {
+            keys = new HashSet<Key>();
+            keysByTable.put(table, keys);
+          }
+          keys.add(ticket.key);
+        }
+        evict();
+      }
+    }
+    return new CachedResultSet(rows, null);
+  }
+
+  /**
+   * Lee las definiciones de las vistas si la cache aún no las conoce; un
+   * cambio de esquema las descarta con {@link #clear()}.
+   *
+   * @param conn conexión de la base de datos de la cache
+   * @throws SQLException
+   */
+  void loadViews(Connection conn) throws SQLException {
+    final long loadEpoch;
+    synchronized (this) {
+      if (viewTables != null) return;
+      loadEpoch = epoch;
+    }
+    Map<String, String> definitions = new HashMap<String, String>();
+    try (Statement statement = conn.createStatement();
+            ResultSet rs = statement.executeQuery(
+                    "SELECT name, sql FROM sqlite_master WHERE type = 'view'")) {
+      while (rs.next()) {
+        definitions.put(rs.getString(1).toLowerCase(Locale.ROOT), rs.getString(2));
+      }
+    }
+    Map<String, Set<String>> views = new HashMap<String, Set<String>>();
+    for (String view : definitions.keySet()) {
+      resolveView(view, definitions, views);
+    }
+    synchronized (this) {
+      if (epoch == loadEpoch) viewTables = views;
+    }
+  }
+
+  /**
+   * Tablas de una vista, incluidas las de las vistas que usa.
+   *
+   * @return null si la vista usa funciones no deterministas
+   */
+  private static Set<String> resolveView(String view, Map<String, String> definitions,
+          Map<String, Set<String>> views) {
+    if (views.containsKey(view)) return views.get(view);
+    // Se marca antes de resolver para no ciclar con definiciones inválidas.
+    views.put(view, null);
+    Set<String> tables = tablesOf(definitions.get(view));
+    if (tables == null) return null;
+    for (String name : tables.toArray(new String[tables.size()])) {
+      if (name.equals(view) || !definitions.containsKey(name)) continue;
+      Set<String> base = resolveView(name, definitions, views);
+      if (base == null) return null;
+      tables.addAll(base);
+    }
+    views.put(view, tables);
+    return tables;
+  }
+
+  private boolean isCurrent(Ticket ticket) {
+    if (ticket.epoch != epoch) return false;
+    for (int i = 0; i < ticket.tables.length; i++) {
+      if (version(ticket.tables[i]) != ticket.versions[i]) return false;
+    }
+    return true;
+  }
+
+  private long version(String table) {
+    Long version = tableVersions.get(table);
+    return (version == null) ? 0 : version;
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+    while ((entries.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+      Map.Entry<Key, Entry> eldest = it.next();
+      it.remove();
+      unlink(eldest.getKey(), eldest.getValue());
+      evictionCount++;
+    }
+  }
+
+  private void remove(Key key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) unlink(key, entry);
+  }
+
+  private void unlink(Key key, Entry entry) {
+    weight -= entry.weight;
+    for (String table : entry.tables) {
+      Set<Key> keys = keysByTable.get(table);
+      if (keys != null) {
+        keys.remove(key);
+        if (keys.isEmpty()) keysByTable.remove(table);
+      }
+    }
+  }
+
+  /**
+   * Descarta los resultados que dependen de las tablas.
+   *
+   * @param tables nombres de las tablas modificadas
+   */
+  public synchronized void invalidate(Collection<String> tables) {
+    for (String name : tables) {
+      String table = name.toLowerCase(Locale.ROOT);
+      tableVersions.put(table, version(table) + 1);
+      Set<Key> keys = keysByTable.remove(table);
+      if (keys == null) continue;
+      for (Key key : new ArrayList<Key>(keys)) {
+        remove(key);
+        invalidationCount++;
+      }
+    }
+  }
+
+  /** Descarta todos los resultados. */
+  public synchronized void clear() {
+    epoch++;
+    viewTables = null;
+    entries.clear();
+    keysByTable.clear();
+    tableVersions.clear();
+    weight = 0;
+  }
+
+  @Override public synchronized int getSize() {
+    return entries.size();
+  }
+
+  @Override public synchronized long getWeight() {
+    return weight;
+  }
+
+  @Override public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  @Override public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  @Override public synchronized double getHitRatio() {
+    long total = hitCount + missCount;
+    return (total == 0) ? 0 : (double) hitCount / total;
+  }
+
+  @Override public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  @Override public synchronized long getExpiredCount() {
+    return expiredCount;
+  }
+
+  @Override public synchronized long getInvalidationCount() {
+    return invalidationCount;
+  }
+
+  @Override public synchronized void reset() {
+    clear();
+    hitCount = 0;
+    missCount = 0;
+    evictionCount = 0;
+    expiredCount = 0;
+    invalidationCount = 0;
+  }
+
+  /**
+   * Tablas de las que depende un query: las que aparecen tras FROM y JOIN,
+   * incluidas las de subqueries.
+   *
+   * @return los nombres en minúsculas, o null si el query usa funciones no
+   * deterministas
+   */
+  static Set<String> tablesOf(String sql) {
+    if (sql.toLowerCase(Locale.ROOT).contains("'now'")) return null;
+    List<String> tokens = tokenize(sql);
+    Set<String> tables = new HashSet<String>();
+    for (int i = 0; i < tokens.size(); i++) {
+      String token = tokens.get(i).toUpperCase(Locale.ROOT);
+      if (NON_DETERMINISTIC.contains(token)) return null;
+      if (!token.equals("FROM") && !token.equals("JOIN")) continue;
+      int j = i + 1;
+      while (j < tokens.size() && !tokens.get(j).equals("(")) {
+        j = readTableName(tokens, j, tables);
+        // Alias opcional, con o sin AS.
+        if (j < tokens.size() && tokens.get(j).equalsIgnoreCase("AS")) {
+          j += 2;
+        } else if (j < tokens.size() && isIdentifier(tokens.get(j))
+                && !FROM_STOP_WORDS.contains(tokens.get(j).toUpperCase(Locale.ROOT))) {
+          j++;
+        }
+        if (j >= tokens.size() || !tokens.get(j).equals(",")) break;
+        j++;
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Tabla que modifica una sentencia INSERT, REPLACE, UPDATE o DELETE.
+   *
+   * @return el nombre en minúsculas o null si no es una de esas sentencias
+   */
+  static String writeTarget(String sql) {
+    List<String> tokens = tokenize(sql);
+    if (tokens.isEmpty()) return null;
+    String first = tokens.get(0).toUpperCase(Locale.ROOT);
+    int i = 1;
+    if (first.equals("INSERT") || first.equals("UPDATE")) {
+      // INSERT OR REPLACE, UPDATE OR IGNORE, ...
+      if (i < tokens.size() && tokens.get(i).equalsIgnoreCase("OR")) i += 2;
+    } else if (!first.equals("REPLACE") && !first.equals("DELETE")) {
+      return null;
+    }
+    if (!first.equals("UPDATE")) {
+      if (i < tokens.size() && (tokens.get(i).equalsIgnoreCase("INTO")
+              || tokens.get(i).equalsIgnoreCase("FROM"))) {
+        i++;
+      }
+    }
+    if (i >= tokens.size()) return null;
+    Set<String> target = new HashSet<String>(1);
+    readTableName(tokens, i, target);
+    return target.isEmpty() ? null : target.iterator().next();
+  }
+
+  /** Lee <code>tabla</code> o <code>esquema.tabla</code> desde i. */
+  private static int readTableName(List<String> tokens, int i, Set<String> out) {
+    String name = tokens.get(i++);
+    if (i + 1 < tokens.size() && tokens.get(i).equals(".")) {
+      name = tokens.get(i + 1);
+      i += 2;
+    }
+    if (isIdentifier(name)) out.add(name.toLowerCase(Locale.ROOT));
+    return i;
+  }
+
+  private static boolean isIdentifier(String token) {
+    char c = token.charAt(0);
+    return Character.isLetter(c) || c == '_';
+  }
+
+  /**
+   * Separa el sql en palabras y símbolos. Los identificadores entre comillas
+   * dobles, acentos graves o corchetes se devuelven sin ellas; las cadenas y
+   * los comentarios se omiten.
+   */
+  private static List<String> tokenize(String sql) {
+    List<String> tokens = new ArrayList<String>();
+    int n = sql.length();
+    int i = 0;
+    while (i < n) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+        while (i < n && sql.charAt(i) != '\n') i++;
+      } else if (c == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = (end < 0) ? n : end + 2;
+      } else if (c == '\'') {
+        i++;
+        while (i < n) {
+          if (sql.charAt(i++) == '\'') {
+            if (i < n && sql.charAt(i) == '\'') {
+              i++;
+            } else {
+              break;
+            }
+          }
+        }
+      } else if (c == '"' || c == '`' || c == '[') {
+        char close = (c == '[') ? ']' : c;
+        int end = sql.indexOf(close, i + 1);
+        if (end < 0) end = n;
+        tokens.add(sql.substring(i + 1, end));
+        i = end + 1;
+      } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+        int start = i;
+        while (i < n && (Character.isLetterOrDigit(sql.charAt(i))
+                || sql.charAt(i) == '_' || sql.charAt(i) == '$')) {
+          i++;
+        }
+        tokens.add(sql.substring(start, i));
+      } else {
+        tokens.add(String.valueOf(c));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  /** Datos de un query leídos antes de ejecutarlo. */
+  static final class Ticket {
+    final Key key;
+    final String[] tables;
+    final long[] versions;
+    final long epoch;
+
+    Ticket(Key key, String[] tables, long[] versions, long epoch) {
+      this.key = key;
+      this.tables = tables;
+      this.versions = versions;
+      this.epoch = epoch;
+    }
+  }
+
+  private static final class Entry {
+    final CachedResultSet.Rows rows;
+    final String[] tables;
+    final long weight;
+    final long expiresAt;
+
+    Entry(CachedResultSet.Rows rows, String[] tables, long weight, long expiresAt) {
+      this.rows = rows;
+      this.tables = tables;
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private static final class Key {
+    final String sql;
+    final Object[] bindArgs;
+    final int hash;
+
+    Key(String sql, Object[] bindArgs) {
+      this.sql = sql;
+      this.bindArgs = (bindArgs == null) ? new Object[0] : bindArgs.clone();
+      this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(this.bindArgs);
+    }
+
+    @Override public int hashCode() {
+      return hash;
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof Key)) return false;
+      Key other = (Key) obj;
+      return hash == other.hash && sql.equals(other.sql)
+              && Arrays.deepEquals(bindArgs, other.bindArgs);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package javax.database.sqlite;
+
+/**
+ * Estadísticas de la cache de resultados expuestas por JMX.
+ *
+ * @see QueryCache#register(String)
+ */
+public interface QueryCacheMXBean {
+
+  /** Número de queries en la cache. */
+  int getSize();
+
+  /** Suma del peso (filas por columnas) de los resultados en la cache. */
+  long getWeight();
+
+  long getHitCount();
+
+  long getMissCount();
+
+  /** Aciertos entre consultas a la cache, entre 0 y 1. */
+  double getHitRatio();
+
+  /** Resultados descartados por falta de espacio. */
+  long getEvictionCount();
+
+  /** Resultados descartados porque venció su tiempo de vida. */
+  long getExpiredCount();
+
+  /** Resultados descartados porque se modificó una de sus tablas. */
+  long getInvalidationCount();
+
+  /** Vacía la cache y reinicia los contadores. */
+  void reset();
+}
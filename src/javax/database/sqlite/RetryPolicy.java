@@ -0,0 +1,133 @@
+package javax.database.sqlite;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Política de reintentos ante <code>SQLITE_BUSY</code> y
+ * <code>SQLITE_LOCKED</code>: espera exponencial con jitter, un número máximo
+ * de intentos y un plazo total.
+ *
+ * Solo se reintenta lo que se sabe que no tuvo efecto: una sentencia que
+ * falla con BUSY fuera de una transacción, el BEGIN y el COMMIT. Las
+ * sentencias dentro de una transacción no se reintentan, porque esperar con
+ * la transacción abierta puede bloquear a la otra conexión; para repetir la
+ * transacción completa el trabajo debe ser idempotente y decidirlo quien
+ * llama.
+ *
+ * Una misma política se puede compartir entre conexiones; sus contadores
+ * suman los reintentos de todas.
+ *
+ * <pre>
+ * db.setRetryPolicy(new RetryPolicy(5, 10, 500, 5000));
+ * </pre>
+ */
+public class RetryPolicy {
+  private static final String TAG = "RetryPolicy";
+
+  /** Código de error de SQLite: la base de datos está bloqueada. */
+  public static final int SQLITE_BUSY = 5;
+  /** Código de error de SQLite: una tabla está bloqueada. */
+  public static final int SQLITE_LOCKED = 6;
+
+  private final int maxAttempts;
+  private final long initialBackoffNanos;
+  private final long maxBackoffNanos;
+  private final long deadlineNanos;
+
+  private final AtomicLong retryCount = new AtomicLong();
+  private final AtomicLong giveUpCount = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+
+  /**
+   * @param maxAttempts número máximo de intentos, incluido el primero
+   * @param initialBackoffMillis espera antes del segundo intento; se duplica
+   * en cada intento
+   * @param maxBackoffMillis espera máxima entre dos intentos
+   * @param deadlineMillis tiempo máximo desde el primer intento
+   */
+  public RetryPolicy(int maxAttempts, long initialBackoffMillis,
+          long maxBackoffMillis, long deadlineMillis) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts < 1");
+    }
+    if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+      throw new IllegalArgumentException("invalid backoff");
+    }
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+    this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+    this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+  }
+
+  /** Indica si el error es <code>SQLITE_BUSY</code> o <code>SQLITE_LOCKED</code>. */
+  public static boolean isBusy(SQLException e) {
+    final int code = e.getErrorCode() & 0xff;
+    return code == SQLITE_BUSY || code == SQLITE_LOCKED;
+  }
+
+  /**
+   * Decide si se reintenta y, en ese caso, espera antes de volver.
+   *
+   * @param e error del intento
+   * @param attempt número del intento que falló, empezando en 1
+   * @param start <code>System.nanoTime()</code> del primer intento
+   * @return true si se debe reintentar
+   */
+  boolean backoff(SQLException e, int attempt, long start) {
+    if (!isBusy(e)) return false;
+    if (attempt >= maxAttempts) {
+      giveUpCount.incrementAndGet();
+      return false;
+    }
+    long backoff = initialBackoffNanos << Math.min(attempt - 1, 30);
+    if (backoff > maxBackoffNanos || backoff < 0) backoff = maxBackoffNanos;
+    // La mitad fija y la otra mitad al azar, para que las conexiones que
+    // chocaron no vuelvan a la vez.
+    long half = backoff / 2;
+    long sleep = half + ((half > 0) ? ThreadLocalRandom.current().nextLong(half + 1) : 0);
+    if (System.nanoTime() + sleep - start > deadlineNanos) {
+      giveUpCount.incrementAndGet();
+      return false;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(sleep);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    retryCount.incrementAndGet();
+    waitNanos.addAndGet(sleep);
+    if (Log.isDebuggable()) {
+      Log.i(TAG, "Retry " + attempt + " after " + e.getMessage());
+    }
+    return true;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /** Número de reintentos realizados. */
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  /** Número de veces que se agotaron los intentos o el plazo. */
+  public long getGiveUpCount() {
+    return giveUpCount.get();
+  }
+
+  /** Tiempo total de espera entre intentos, en nanosegundos. */
+  public long getWaitNanos() {
+    return waitNanos.get();
+  }
+
+  public void resetCounters() {
+    retryCount.set(0);
+    giveUpCount.set(0);
+    waitNanos.set(0);
+  }
+}
@@ -0,0 +1,17 @@
+package javax.database.sqlite;
+
+import java.sql.SQLTransactionRollbackException;
+
+/**
+ * La lanza {@link SQLiteDatabase#rollback()} dentro de
+ * {@link SQLiteDatabase#runInTransaction}: al salir del trabajo,
+ * <code>runInTransaction</code> revierte su nivel, la transacción o el
+ * savepoint, y la vuelve a lanzar.
+ */
+public class RollbackException extends SQLTransactionRollbackException {
+  private static final long serialVersionUID = 1L;
+
+  public RollbackException() {
+    super("Transaction rolled back by rollback()");
+  }
+}
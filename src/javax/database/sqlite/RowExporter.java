@@ -0,0 +1,420 @@
+package javax.database.sqlite;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Escribe las filas de un query en un canal, fila por fila desde el cursor,
+ * a través de un {@link ByteBuffer} directo que se reutiliza; la memoria no
+ * depende del tamaño del resultado.
+ *
+ * Formatos:
+ * <ul>
+ * <li>CSV: encabezado con los nombres de las columnas, campos entre
+ * comillas solo si hace falta (RFC 4180), NULL como campo vacío y líneas
+ * terminadas en <code>\n</code>.</li>
+ * <li>NDJSON: un objeto JSON por fila; NaN e infinito se escriben como
+ * null.</li>
+ * <li>BINARY: enteros big-endian. Encabezado: <code>"SQLB"</code>, versión
+ * (1 byte), número de columnas (int) y el nombre de cada columna. Cada fila
+ * empieza con su longitud en bytes (int) seguida de cada valor: un byte de
+ * tipo (0 NULL, 1 INTEGER, 2 REAL, 3 TEXT, 4 BLOB) y el valor: long, double
+ * o longitud (int) y bytes. Los textos van en UTF-8. Una longitud de fila -1
+ * marca el final.</li>
+ * </ul>
+ * En CSV y NDJSON los BLOB se escriben en hexadecimal.
+ *
+ * @see SQLiteDatabase#export(String, Object[], Format, WritableByteChannel)
+ */
+public final class RowExporter {
+  private static final String TAG = "RowExporter";
+
+  /** Formato de salida. */
+  public enum Format { CSV, NDJSON, BINARY }
+
+  /** Tamaño inicial del buffer; crece si una fila binaria no cabe. */
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  static final byte BINARY_VERSION = 1;
+  static final byte TYPE_NULL = 0;
+  static final byte TYPE_INTEGER = 1;
+  static final byte TYPE_REAL = 2;
+  static final byte TYPE_TEXT = 3;
+  static final byte TYPE_BLOB = 4;
+
+  private static final byte[] MAGIC = {'S', 'Q', 'L', 'B'};
+  private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7',
+          '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+  /** Un exportador por hilo, para reutilizar su buffer. */
+  private static final ThreadLocal<RowExporter> EXPORTERS =
+          new ThreadLocal<RowExporter>() {
+    @Override protected RowExporter initialValue() {
+      return new RowExporter();
+    }
+  };
+
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private WritableByteChannel out;
+  /** Inicio de la fila binaria en curso, que debe quedar en el buffer. */
+  private int rowStart = -1;
+
+  private RowExporter() {
+  }
+
+  /** Exportador del hilo actual. */
+  static RowExporter get() {
+    return EXPORTERS.get();
+  }
+
+  /**
+   * Escribe todas las filas del cursor y lo cierra. El canal no se cierra.
+   *
+   * @param rs cursor a exportar
+   * @param format formato de salida
+   * @param channel destino
+   * @param gzip true para comprimir la salida con gzip
+   * @return el número de filas escritas
+   */
+  long export(ResultSet rs, Format format, WritableByteChannel channel,
+          boolean gzip) throws SQLException, IOException {
+    GZIPOutputStream gzipStream = null;
+    try {
+      if (gzip) {
+        gzipStream = new GZIPOutputStream(new NonClosingOutputStream(
+                Channels.newOutputStream(channel)), BUFFER_SIZE);
+        out = Channels.newChannel(gzipStream);
+      } else {
+        out = channel;
+      }
+      buffer.clear();
+      rowStart = -1;
+      final ResultSetMetaData metaData = rs.getMetaData();
+      final int columnCount = metaData.getColumnCount();
+      final String[] names = new String[columnCount];
+      for (int i = 0; i < columnCount; i++) {
+        names[i] = metaData.getColumnLabel(i + 1);
+      }
+      long rows = 0;
+      switch (format) {
+        case CSV:
+          writeCsvHeader(names);
+          while (rs.next()) {
+            writeCsvRow(rs, columnCount);
+            rows++;
+          }
+          break;
+        case NDJSON:
+          while (rs.next()) {
+            writeJsonRow(rs, names);
+            rows++;
+          }
+          break;
+        default:
+          writeBinaryHeader(names);
+          while (rs.next()) {
+            writeBinaryRow(rs, columnCount);
+            rows++;
+          }
+          ensure(4);
+          buffer.putInt(-1);
+      }
+      flush();
+      if (gzipStream != null) gzipStream.close();
+      if (Log.isDebuggable()) Log.i(TAG, "Exported " + rows + " rows as " + format);
+      return rows;
+    } finally {
+      out = null;
+      SQLiteDatabase.closeQuietly(rs);
+      // Libera el Deflater; el canal sigue abierto.
+      if (gzipStream != null) SQLiteDatabase.closeQuietly(gzipStream);
+      if (buffer.capacity() > BUFFER_SIZE) {
+        // No se retiene un buffer grande por una fila excepcional.
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      }
+    }
+  }
+
+  private void writeCsvHeader(String[] names) throws IOException {
+    for (int i = 0; i < names.length; i++) {
+      if (i > 0) putAscii(',');
+      putCsvText(names[i]);
+    }
+    putAscii('\n');
+  }
+
+  private void writeCsvRow(ResultSet rs, int columnCount) throws SQLException,
+          IOException {
+    for (int i = 1; i <= columnCount; i++) {
+      if (i > 1) putAscii(',');
+      final Object value = rs.getObject(i);
+      if (value == null) continue;
+      if (value instanceof byte[]) {
+        putHex((byte[]) value);
+      } else if (value instanceof String) {
+        putCsvText((String) value);
+      } else {
+        putAscii(value.toString());
+      }
+    }
+    putAscii('\n');
+  }
+
+  private void writeJsonRow(ResultSet rs, String[] names) throws SQLException,
+          IOException {
+    putAscii('{');
+    for (int i = 0; i < names.length; i++) {
+      if (i > 0) putAscii(',');
+      putJsonText(names[i]);
+      putAscii(':');
+      final Object value = rs.getObject(i + 1);
+      if (value == null) {
+        putAscii("null");
+      } else if (value instanceof byte[]) {
+        putAscii('"');
+        putHex((byte[]) value);
+        putAscii('"');
+      } else if (value instanceof String) {
+        putJsonText((String) value);
+      } else if (value instanceof Double || value instanceof Float) {
+        double d = ((Number) value).doubleValue();
+        putAscii(Double.isNaN(d) || Double.isInfinite(d) ? "null" : value.toString());
+      } else if (value instanceof Number) {
+        putAscii(value.toString());
+      } else {
+        putJsonText(value.toString());
+      }
+    }
+    putAscii('}');
+    putAscii('\n');
+  }
+
+  private void writeBinaryHeader(String[] names) throws IOException {
+    ensure(9);
+    // El encabezado se trata como una fila: queda en el buffer hasta completarse.
+    rowStart = buffer.position();
+    buffer.put(MAGIC);
+    buffer.put(BINARY_VERSION);
+    buffer.putInt(names.length);
+    for (String name : names) {
+      putBinaryText(name);
+    }
+    rowStart = -1;
+  }
+
+  private void writeBinaryRow(ResultSet rs, int columnCount) throws SQLException,
+          IOException {
+    ensure(4);
+    rowStart = buffer.position();
+    buffer.putInt(0);
+    for (int i = 1; i <= columnCount; i++) {
+      final Object value = rs.getObject(i);
+      if (value == null) {
+        ensure(1);
+        buffer.put(TYPE_NULL);
+      } else if (value instanceof Double || value instanceof Float) {
+        ensure(9);
+        buffer.put(TYPE_REAL);
+        buffer.putDouble(((Number) value).doubleValue());
+      } else if (value instanceof Long || value instanceof Integer
+              || value instanceof Short || value instanceof Byte) {
+        ensure(9);
+        buffer.put(TYPE_INTEGER);
+        buffer.putLong(((Number) value).longValue());
+      } else if (value instanceof byte[]) {
+        final byte[] bytes = (byte[]) value;
+        ensure(5 + bytes.length);
+        buffer.put(TYPE_BLOB);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+      } else {
+        ensure(1);
+        buffer.put(TYPE_TEXT);
+        putBinaryText(value.toString());
+      }
+    }
+    buffer.putInt(rowStart, buffer.position() - rowStart - 4);
+    rowStart = -1;
+  }
+
+  /** Longitud en bytes (int) seguida del texto en UTF-8, dentro de una fila. */
+  private void putBinaryText(String text) throws IOException {
+    ensure(4);
+    // Posición relativa al inicio de la fila, que se mueve al vaciar el buffer.
+    final int offset = buffer.position() - rowStart;
+    buffer.putInt(0);
+    final int length = putUtf8(text, 0, text.length());
+    buffer.putInt(rowStart + offset, length);
+  }
+
+  private void putCsvText(String text) throws IOException {
+    boolean quote = false;
+    for (int i = 0; i < text.length() && !quote; i++) {
+      char c = text.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      putUtf8(text, 0, text.length());
+      return;
+    }
+    putAscii('"');
+    int start = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '"') {
+        putUtf8(text, start, i + 1);
+        putAscii('"');
+        start = i + 1;
+      }
+    }
+    putUtf8(text, start, text.length());
+    putAscii('"');
+  }
+
+  private void putJsonText(String text) throws IOException {
+    putAscii('"');
+    int start = 0;
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (c != '"' && c != '\\' && c >= 0x20) continue;
+      putUtf8(text, start, i);
+      start = i + 1;
+      putAscii('\\');
+      switch (c) {
+        case '"': putAscii('"'); break;
+        case '\\': putAscii('\\'); break;
+        case '\n': putAscii('n'); break;
+        case '\r': putAscii('r'); break;
+        case '\t': putAscii('t'); break;
+        case '\b': putAscii('b'); break;
+        case '\f': putAscii('f'); break;
+        default:
+          putAscii("u00");
+          putAscii((char) HEX[c >> 4]);
+          putAscii((char) HEX[c & 0xf]);
+      }
+    }
+    putUtf8(text, start, text.length());
+    putAscii('"');
+  }
+
+  private void putHex(byte[] bytes) throws IOException {
+    for (byte b : bytes) {
+      ensure(2);
+      buffer.put(HEX[(b >> 4) & 0xf]);
+      buffer.put(HEX[b & 0xf]);
+    }
+  }
+
+  private void putAscii(char c) throws IOException {
+    ensure(1);
+    buffer.put((byte) c);
+  }
+
+  private void putAscii(String text) throws IOException {
+    ensure(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      buffer.put((byte) text.charAt(i));
+    }
+  }
+
+  /**
+   * Codifica en UTF-8 los caracteres de <code>start</code> a
+   * <code>end</code>; un surrogate sin pareja se escribe como '?'.
+   *
+   * @return el número de bytes escritos
+   */
+  private int putUtf8(String text, int start, int end) throws IOException {
+    int bytes = 0;
+    for (int i = start; i < end; i++) {
+      final char c = text.charAt(i);
+      if (c < 0x80) {
+        ensure(1);
+        buffer.put((byte) c);
+        bytes += 1;
+      } else if (c < 0x800) {
+        ensure(2);
+        buffer.put((byte) (0xc0 | (c >> 6)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+        bytes += 2;
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < end
+                && Character.isLowSurrogate(text.charAt(i + 1))) {
+          final int cp = Character.toCodePoint(c, text.charAt(++i));
+          ensure(4);
+          buffer.put((byte) (0xf0 | (cp >> 18)));
+          buffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+          buffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+          buffer.put((byte) (0x80 | (cp & 0x3f)));
+          bytes += 4;
+        } else {
+          ensure(1);
+          buffer.put((byte) '?');
+          bytes += 1;
+        }
+      } else {
+        ensure(3);
+        buffer.put((byte) (0xe0 | (c >> 12)));
+        buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+        bytes += 3;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Asegura que quepan <code>n</code> bytes: escribe en el canal lo que ya
+   * está completo y, si una fila binaria no cabe, agranda el buffer.
+   */
+  private void ensure(int n) throws IOException {
+    if (buffer.remaining() >= n) return;
+    final int keep = (rowStart < 0) ? buffer.position() : rowStart;
+    buffer.flip();
+    final int end = buffer.limit();
+    buffer.limit(keep);
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+    buffer.limit(end);
+    buffer.compact();
+    if (rowStart >= 0) rowStart = 0;
+    if (buffer.remaining() < n) {
+      final int capacity = Math.max(buffer.capacity() * 2, buffer.position() + n);
+      ByteBuffer larger = ByteBuffer.allocateDirect(capacity);
+      buffer.flip();
+      larger.put(buffer);
+      buffer = larger;
+    }
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /** Deja abierto el canal al cerrar el stream gzip. */
+  private static final class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override public void close() throws IOException {
+      flush();
+    }
+  }
+}
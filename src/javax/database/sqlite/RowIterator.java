@@ -0,0 +1,77 @@
+package javax.database.sqlite;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Recorre un query fila por fila sin cargarlo en memoria.
+ *
+ * El cursor se cierra solo al llegar a la última fila o si ocurre un error;
+ * si se abandona antes hay que llamar a {@link #close()}. Los errores de sql
+ * se lanzan como {@link SQLRuntimeException}.
+ *
+ * @param <T> tipo de cada fila
+ */
+public final class RowIterator<T> implements Iterator<T>, AutoCloseable {
+
+  private final ResultSet rs;
+  private final RowMapper<T> mapper;
+  private boolean fetched;
+  private boolean hasRow;
+  private boolean closed;
+
+  RowIterator(ResultSet rs, RowMapper<T> mapper) {
+    this.rs = rs;
+    this.mapper = mapper;
+  }
+
+  /**
+   * Sugiere al driver cuántas filas leer por vez.
+   *
+   * @param rows número de filas
+   * @return este iterador
+   * @throws SQLException
+   */
+  public RowIterator<T> fetchSize(int rows) throws SQLException {
+    rs.setFetchSize(rows);
+    return this;
+  }
+
+  @Override public boolean hasNext() {
+    if (closed) return false;
+    if (!fetched) {
+      try {
+        hasRow = rs.next();
+      } catch (SQLException e) {
+        close();
+        throw new SQLRuntimeException(e);
+      }
+      fetched = true;
+      if (!hasRow) close();
+    }
+    return hasRow;
+  }
+
+  @Override public T next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    fetched = false;
+    try {
+      return mapper.mapRow(rs);
+    } catch (SQLException e) {
+      close();
+      throw new SQLRuntimeException(e);
+    }
+  }
+
+  @Override public void remove() {
+    throw new UnsupportedOperationException("remove");
+  }
+
+  @Override public void close() {
+    if (closed) return;
+    closed = true;
+    SQLiteDatabase.closeQuietly(rs);
+  }
+}
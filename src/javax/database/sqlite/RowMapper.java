@@ -0,0 +1,21 @@
+package javax.database.sqlite;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Convierte la fila actual de un {@link ResultSet} en un objeto.
+ *
+ * @param <T> tipo del objeto
+ */
+public interface RowMapper<T> {
+
+  /**
+   * Lee la fila actual; no debe llamar a <code>next()</code>.
+   *
+   * @param rs resultado posicionado en la fila
+   * @return el objeto de la fila
+   * @throws SQLException
+   */
+  T mapRow(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,179 @@
+package javax.database.sqlite;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publica las filas de un query con control de demanda: el cursor solo
+ * avanza cuando el suscriptor pide filas con {@link Subscription#request}.
+ *
+ * Las interfaces tienen los mismos métodos que las de
+ * <code>java.util.concurrent.Flow</code>, así que en Java 9+ se adaptan
+ * directamente. Cada suscripción ejecuta el query de nuevo, en la primera
+ * petición de filas, y cierra el cursor al terminar, al fallar o al
+ * cancelarse.
+ *
+ * Las filas se leen y se entregan en el hilo que llama a
+ * <code>request</code>; la conexión solo está ocupada durante esas llamadas.
+ * Las peticiones que llegan mientras se entregan filas se suman a la
+ * demanda y las atiende el mismo recorrido.
+ *
+ * @param <T> tipo de cada fila
+ * @see SQLiteDatabase#publish(String, RowMapper, Object...)
+ */
+public final class RowPublisher<T> {
+
+  /** Recibe las filas de una suscripción. */
+  public interface Subscriber<T> {
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+  }
+
+  /** Enlace entre el publicador y un suscriptor. */
+  public interface Subscription {
+    /**
+     * Pide <code>n</code> filas más; con <code>Long.MAX_VALUE</code> se
+     * piden todas.
+     */
+    void request(long n);
+
+    /** Deja de recibir filas y cierra el cursor. */
+    void cancel();
+  }
+
+  /** Máximo de filas que se sugiere leer por vez al driver. */
+  private static final int MAX_FETCH_SIZE = 1000;
+
+  private final SQLiteDatabase db;
+  private final String sql;
+  private final RowMapper<T> mapper;
+  private final Object[] bindArgs;
+
+  RowPublisher(SQLiteDatabase db, String sql, RowMapper<T> mapper, Object[] bindArgs) {
+    this.db = db;
+    this.sql = sql;
+    this.mapper = mapper;
+    this.bindArgs = bindArgs;
+  }
+
+  public void subscribe(Subscriber<? super T> subscriber) {
+    if (subscriber == null) throw new NullPointerException("subscriber");
+    subscriber.onSubscribe(new RowSubscription(subscriber));
+  }
+
+  private final class RowSubscription implements Subscription {
+    private final Subscriber<? super T> subscriber;
+    private final AtomicLong requested = new AtomicLong();
+    /** Número de llamadas pendientes; solo la primera recorre el cursor. */
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable invalidRequest;
+    private RowIterator<T> rows;
+    private boolean done;
+
+    RowSubscription(Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override public void request(long n) {
+      if (n <= 0) {
+        invalidRequest = new IllegalArgumentException("request " + n + " <= 0");
+      } else {
+        long r;
+        do {
+          r = requested.get();
+          if (r == Long.MAX_VALUE) break;
+        } while (!requested.compareAndSet(r, (r + n < 0) ? Long.MAX_VALUE : r + n));
+      }
+      drain();
+    }
+
+    @Override public void cancel() {
+      cancelled = true;
+      drain();
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() != 0) return;
+      int missed = 1;
+      do {
+        try {
+          emit();
+        } catch (RuntimeException | Error e) {
+          // El suscriptor falló en onNext: emit() ya cerró el cursor y la
+          // suscripción está terminada, las llamadas siguientes no hacen nada.
+          wip.set(0);
+          throw e;
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void emit() {
+      if (done) return;
+      if (cancelled) {
+        finish();
+        return;
+      }
+      if (invalidRequest != null) {
+        finish();
+        subscriber.onError(invalidRequest);
+        return;
+      }
+      long r = requested.get();
+      if (r == 0) return;
+      long emitted = 0;
+      boolean delivering = false;
+      try {
+        if (rows == null) {
+          rows = db.queryIterator(sql, mapper, bindArgs);
+          rows.fetchSize((int) Math.min(r, MAX_FETCH_SIZE));
+        }
+        while (emitted != r) {
+          if (cancelled) {
+            finish();
+            return;
+          }
+          if (!rows.hasNext()) break;
+          T item = rows.next();
+          delivering = true;
+          subscriber.onNext(item);
+          delivering = false;
+          emitted++;
+        }
+        // Se completa sin esperar otra petición si ya no quedan filas.
+        if (!cancelled && !rows.hasNext()) {
+          finish();
+          subscriber.onComplete();
+          return;
+        }
+      } catch (SQLException e) {
+        finish();
+        subscriber.onError(e);
+        return;
+      } catch (RuntimeException e) {
+        finish();
+        if (delivering) throw e;
+        // Un error del mapper termina la suscripción igual que uno del query.
+        subscriber.onError((e instanceof SQLRuntimeException)
+                ? ((SQLRuntimeException) e).getCause() : e);
+        return;
+      } catch (Error e) {
+        finish();
+        throw e;
+      }
+      if (r != Long.MAX_VALUE) requested.addAndGet(-emitted);
+    }
+
+    private void finish() {
+      done = true;
+      if (rows != null) rows.close();
+    }
+  }
+}
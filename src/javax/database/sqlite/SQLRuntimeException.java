@@ -0,0 +1,19 @@
+package javax.database.sqlite;
+
+import java.sql.SQLException;
+
+/**
+ * Envuelve un {@link SQLException} donde la interfaz no permite lanzarlo,
+ * p.ej. en {@link java.util.Iterator#next()}.
+ */
+public class SQLRuntimeException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public SQLRuntimeException(SQLException cause) {
+    super(cause);
+  }
+
+  @Override public synchronized SQLException getCause() {
+    return (SQLException) super.getCause();
+  }
+}
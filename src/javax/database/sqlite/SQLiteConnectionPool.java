@@ -0,0 +1,119 @@
+package javax.database.sqlite;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool de conexiones con una conexión de escritura y varias de solo lectura.
+ *
+ * Las conexiones se prestan con {@link #acquire(boolean)} y regresan al pool
+ * cuando se cierra el {@link SQLiteDatabase}. El hilo que tiene la conexión
+ * de escritura la recibe también cuando pide una de lectura, así ve sus
+ * propios cambios aun sin confirmar.
+ */
+final class SQLiteConnectionPool {
+  private static final String TAG = "SQLiteConnectionPool";
+
+  private final SQLiteDatabase writer;
+  private final List<SQLiteDatabase> readers;
+  private final ArrayDeque<SQLiteDatabase> idleReaders;
+  private final long timeoutMillis;
+
+  private Thread writerOwner;
+  private int writerHoldCount;
+  private boolean closed;
+
+  SQLiteConnectionPool(SQLiteDatabase writer, List<SQLiteDatabase> readers,
+          long timeoutMillis) {
+    this.writer = writer;
+    this.readers = new ArrayList<SQLiteDatabase>(readers);
+    this.idleReaders = new ArrayDeque<SQLiteDatabase>(readers);
+    this.timeoutMillis = timeoutMillis;
+    writer.pool = this;
+    for (SQLiteDatabase reader : readers) {
+      reader.pool = this;
+    }
+  }
+
+  /**
+   * Presta una conexión del pool, esperando como máximo el tiempo configurado.
+   *
+   * @param writable true para la conexión de escritura
+   * @return la conexión, se devuelve al pool con {@link SQLiteDatabase#close()}
+   * @throws SQLException si el pool está cerrado o se agotó la espera
+   */
+  synchronized SQLiteDatabase acquire(boolean writable) throws SQLException {
+    final Thread current = Thread.currentThread();
+    if (writerOwner == current) {
+      writerHoldCount++;
+      return writer;
+    }
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (true) {
+      if (closed) throw new SQLException("Connection pool is closed");
+      if (writable) {
+        if (writerOwner == null) {
+          writerOwner = current;
+          writerHoldCount = 1;
+          return writer;
+        }
+      } else if (!idleReaders.isEmpty()) {
+        return idleReaders.poll();
+      }
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        throw new SQLTimeoutException("Timed out after " + timeoutMillis
+                + " ms waiting for a " + (writable ? "writable" : "readable")
+                + " connection");
+      }
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted waiting for a connection", e);
+      }
+    }
+  }
+
+  /**
+   * Regresa una conexión al pool.
+   *
+   * @return false si el pool ya se cerró y la conexión debe cerrarse
+   * @throws IllegalStateException si la conexión de escritura la regresa un
+   * hilo que no la tiene
+   */
+  synchronized boolean release(SQLiteDatabase db) {
+    if (closed) return false;
+    if (db == writer) {
+      if (writerOwner != Thread.currentThread()) {
+        throw new IllegalStateException(
+                "Writable connection released by a thread that does not own it");
+      }
+      if (--writerHoldCount == 0) {
+        writerOwner = null;
+        notifyAll();
+      }
+    } else if (!idleReaders.contains(db)) {
+      idleReaders.offer(db);
+      notifyAll();
+    }
+    return true;
+  }
+
+  /** Cierra todas las conexiones del pool. */
+  void close() {
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+      notifyAll();
+    }
+    writer.close();
+    for (SQLiteDatabase reader : readers) {
+      reader.close();
+    }
+    Log.i(TAG, "Closed pool of " + (readers.size() + 1) + " connections");
+  }
+}
@@ -1,20 +1,81 @@
 package javax.database.sqlite;
 
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteUpdateListener;
 
 public class SQLiteDatabase implements AutoCloseable {
   private static final String TAG = "SQLiteDatabase";
 
+  /** Número de filas por lote y por transacción en {@link #insertAll}. */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  /** Tamaño máximo de la cache de sentencias preparadas. */
+  public static final int MAX_SQL_CACHE_SIZE = StatementCache.MAX_SIZE;
+
   private final Connection conn;
+  private final StatementCache statementCache;
+  /** Pool al que pertenece la conexión, o null si no está en un pool. */
+  SQLiteConnectionPool pool;
+  private volatile SQLiteMetrics metrics;
+  private volatile SlowQueryLog slowQueryLog;
+  private volatile RetryPolicy retryPolicy;
+  private volatile QueryCache queryCache;
+  private boolean updateHookRegistered;
+  /**
+   * Tablas modificadas que aún no se invalidaron en la cache; se accede con
+   * el candado de la base de datos.
+   */
+  private final Set<String> writtenTables = new HashSet<String>();
+
+  /**
+   * Tablas que modificó el hilo actual según el update hook. sqlite-jdbc
+   * 3.32 entrega los eventos de todas las conexiones al último listener
+   * registrado, pero siempre en el hilo que ejecuta la sentencia; por eso se
+   * anotan por hilo y cada conexión recoge las de sus sentencias.
+   */
+  private static final ThreadLocal<Set<String>> HOOKED_TABLES =
+          new ThreadLocal<Set<String>>() {
+    @Override protected Set<String> initialValue() {
+      return new HashSet<String>();
+    }
+  };
+
+  private static final Pattern ROLLBACK_TO = Pattern.compile(
+          "\\s*ROLLBACK(\\s+TRANSACTION)?\\s+TO\\b", Pattern.CASE_INSENSITIVE);
+
+  private static final SQLiteUpdateListener UPDATE_LISTENER = new SQLiteUpdateListener() {
+    @Override public void onUpdate(Type type, String database, String table, long rowId) {
+      HOOKED_TABLES.get().add(table.toLowerCase(Locale.ROOT));
+    }
+  };
+  private long transactionStart;
+  /**
+   * Si hay una transacción abierta con un BEGIN propio o de execSQL; el
+   * driver no lo sabe y deja autoCommit en true.
+   */
+  private volatile boolean sqlTransaction;
+  /** Transacciones abiertas con runInTransaction, incluidas las anidadas. */
+  private final AtomicInteger transactionDepth = new AtomicInteger();
   
   public SQLiteDatabase(Connection conn) {
     this.conn = conn;
+    this.statementCache = new StatementCache(conn, StatementCache.DEFAULT_SIZE);
   }
   
   public Connection connection() {
@@ -30,11 +91,27 @@ public class SQLiteDatabase implements AutoCloseable {
   }
 
   @Override public void close() {
+    if (pool != null && pool.release(this)) return;
     synchronized (this) {
+      statementCache.clear();
+      removeUpdateHook();
       closeQuietly(conn);
     }
   }
 
+  /** Quita el update hook de la cache de resultados antes de cerrar. */
+  private void removeUpdateHook() {
+    if (!updateHookRegistered) return;
+    updateHookRegistered = false;
+    try {
+      if (!conn.isClosed()) {
+        ((SQLiteConnection) conn).removeUpdateListener(UPDATE_LISTENER);
+      }
+    } catch (SQLException ignore) {
+      // empty
+    }
+  }
+
   public static void closeQuietly(AutoCloseable closeable) {
     if (closeable == null) return;
     try {
@@ -44,9 +121,223 @@ public class SQLiteDatabase implements AutoCloseable {
     }
   }
 
+  /**
+   * Establece el número máximo de sentencias preparadas que se guardan en la
+   * cache de esta conexión. Con 0 se desactiva la cache.
+   *
+   * @param cacheSize tamaño de la cache, entre 0 y {@link #MAX_SQL_CACHE_SIZE}
+   */
+  public void setMaxSqlCacheSize(int cacheSize) {
+    if (cacheSize > MAX_SQL_CACHE_SIZE || cacheSize < 0) {
+      throw new IllegalArgumentException(
+              "expected value between 0 and " + MAX_SQL_CACHE_SIZE);
+    }
+    statementCache.setMaxSize(cacheSize);
+  }
+
+  /** Cierra las sentencias de la cache, p.ej. tras cambiar el esquema. */
+  public void clearStatementCache() {
+    statementCache.clear();
+  }
+
+  /** Número de sentencias que se reutilizaron de la cache. */
+  public long getStatementCacheHitCount() {
+    return statementCache.hitCount();
+  }
+
+  /** Número de sentencias que se tuvieron que preparar. */
+  public long getStatementCacheMissCount() {
+    return statementCache.missCount();
+  }
+
+  /** Número de sentencias que se cerraron por falta de espacio en la cache. */
+  public long getStatementCacheEvictionCount() {
+    return statementCache.evictionCount();
+  }
+
+  /**
+   * Activa el registro de latencias por sentencia.
+   *
+   * @param metrics donde se registran, null para desactivarlo
+   */
+  public void setMetrics(SQLiteMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public SQLiteMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Activa el registro de sentencias lentas.
+   *
+   * @param slowQueryLog donde se registran, null para desactivarlo
+   */
+  public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+    this.slowQueryLog = slowQueryLog;
+  }
+
+  public SlowQueryLog getSlowQueryLog() {
+    return slowQueryLog;
+  }
+
+  /**
+   * Activa los reintentos ante <code>SQLITE_BUSY</code> y
+   * <code>SQLITE_LOCKED</code>.
+   *
+   * @param retryPolicy política de reintentos, null para desactivarlos
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Activa la cache de resultados de queries. La primera vez se registra un
+   * update hook en la conexión para saber qué tablas se modifican.
+   *
+   * @param queryCache cache, null para desactivarla
+   */
+  public synchronized void setQueryCache(QueryCache queryCache) {
+    this.queryCache = queryCache;
+    writtenTables.clear();
+    // El hook se quita solo al cerrar la conexión: con el driver actual
+    // puede estar recibiendo los eventos de las demás conexiones.
+    if (queryCache != null && !updateHookRegistered
+            && conn instanceof SQLiteConnection) {
+      ((SQLiteConnection) conn).addUpdateListener(UPDATE_LISTENER);
+      updateHookRegistered = true;
+    }
+  }
+
+  public QueryCache getQueryCache() {
+    return queryCache;
+  }
+
+  /**
+   * Anota la tabla que modifica la sentencia; un cambio de esquema vacía la
+   * cache de resultados.
+   */
+  void markWritten(String sql) {
+    final QueryCache cache = queryCache;
+    if (cache == null) return;
+    if (isSchemaChange(sql)) {
+      synchronized (this) {
+        collectHookedTables();
+      }
+      cache.clear();
+      return;
+    }
+    String table = QueryCache.writeTarget(sql);
+    synchronized (this) {
+      collectHookedTables();
+      if (table != null) writtenTables.add(table);
+    }
+  }
+
+  /**
+   * Invalida en la cache las tablas modificadas, cuando los cambios ya están
+   * confirmados: fuera de una transacción o si <code>committed</code>.
+   */
+  private void invalidateWrittenTables(boolean committed) throws SQLException {
+    final QueryCache cache = queryCache;
+    if (cache == null) return;
+    final boolean pending = !committed && inTransaction();
+    final List<String> tables;
+    synchronized (this) {
+      collectHookedTables();
+      if (writtenTables.isEmpty() || pending) return;
+      tables = new ArrayList<String>(writtenTables);
+      writtenTables.clear();
+    }
+    cache.invalidate(tables);
+  }
+
+  /** Pasa a writtenTables las tablas del update hook; con el candado tomado. */
+  private void collectHookedTables() {
+    final Set<String> hooked = HOOKED_TABLES.get();
+    if (hooked.isEmpty()) return;
+    writtenTables.addAll(hooked);
+    hooked.clear();
+  }
+
+  /**
+   * Invalida lo que modificó la sentencia; un BEGIN ejecutado como sql
+   * aplaza la invalidación hasta su COMMIT, END o ROLLBACK.
+   */
+  private void afterWrite(String sql) throws SQLException {
+    if (startsWithKeyword(sql, "BEGIN")) {
+      sqlTransaction = true;
+      return;
+    }
+    final boolean end = endsTransaction(sql);
+    if (end) sqlTransaction = false;
+    markWritten(sql);
+    invalidateWrittenTables(end);
+  }
+
+  /** COMMIT, END o ROLLBACK, pero no ROLLBACK TO de un savepoint. */
+  private static boolean endsTransaction(String sql) {
+    if (startsWithKeyword(sql, "COMMIT") || startsWithKeyword(sql, "END")) {
+      return true;
+    }
+    return startsWithKeyword(sql, "ROLLBACK")
+            && !ROLLBACK_TO.matcher(sql).lookingAt();
+  }
+
+  private long startTimer() {
+    return (metrics != null || slowQueryLog != null || retryPolicy != null)
+            ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Decide si se reintenta una sentencia que falló y espera antes de hacerlo.
+   * Dentro de una transacción solo se reintenta si <code>commit</code> es
+   * true.
+   */
+  private boolean retry(SQLException e, int attempt, long start, boolean commit)
+          throws SQLException {
+    final RetryPolicy policy = retryPolicy;
+    if (policy == null || start == 0) return false;
+    if (!commit && inTransaction()) return false;
+    return policy.backoff(e, attempt, start);
+  }
+
+  /** Registra una ejecución en las métricas y en el log de queries lentos. */
+  void record(String sql, Object[] bindArgs, long rows, long start) {
+    if (start == 0) return;
+    final long nanos = System.nanoTime() - start;
+    final SQLiteMetrics m = metrics;
+    if (m != null) m.record(sql, rows, nanos);
+    final SlowQueryLog slow = slowQueryLog;
+    if (slow != null) slow.check(this, sql, bindArgs, nanos);
+  }
+
+  /**
+   * Igual que {@link #record(String, Object[], long, long)}; los valores de
+   * <code>values</code> solo se copian si hay un log de queries lentos.
+   */
+  private void record(String sql, ContentValues values, Object[] bindArgs,
+          long rows, long start) {
+    if (start == 0) return;
+    record(sql, (values != null && slowQueryLog != null)
+            ? values.toBindArgs(bindArgs) : bindArgs, rows, start);
+  }
+
+  private void recordError(String sql, long start) {
+    final SQLiteMetrics m = metrics;
+    if (m != null && start != 0) m.recordError(sql, System.nanoTime() - start);
+  }
+
   /**
    * Prepara sentencias sql.
    *
+   * La sentencia se toma de la cache de la conexión; al cerrarla regresa a la
+   * cache con sus parámetros limpios.
+   *
    * @param sql instruccion a preparar
    *
    * @return PreparedStatement setencia preparada
@@ -54,7 +345,7 @@ public class SQLiteDatabase implements AutoCloseable {
    * @throws SQLException
    */
   public PreparedStatement compileStatement(String sql) throws SQLException {
-    return conn.prepareStatement(sql);
+    return statementCache.acquire(sql, false);
   }
   public Statement createStatement() throws SQLException {
     return conn.createStatement();
@@ -67,45 +358,220 @@ public class SQLiteDatabase implements AutoCloseable {
       ps.setObject(i + 1, bindArgs[i]);
     }
   }
+
+  /** Enlaza primero <code>values</code> y después <code>bindArgs</code>. */
+  private static void prepareBind(PreparedStatement ps, ContentValues values,
+          Object[] bindArgs) throws SQLException {
+    if (values == null) {
+      prepareBind(ps, bindArgs);
+      return;
+    }
+    values.bind(ps, 0);
+    if (bindArgs == null) return;
+    for (int i = 0; i < bindArgs.length; i++) {
+      ps.setObject(values.size() + i + 1, bindArgs[i]);
+    }
+  }
+
+  private static String argsToString(ContentValues values, Object[] bindArgs) {
+    return Arrays.toString((values == null) ? bindArgs : values.toBindArgs(bindArgs));
+  }
   
   public ResultSet query(String sql) throws SQLException {
-    Statement statement = null;
-    try {
-      statement = conn.createStatement(/*ResultSet.TYPE_FORWARD_ONLY, 
-              ResultSet.CONCUR_READ_ONLY, ResultSet.CLOSE_CURSORS_AT_COMMIT*/);
-      ResultSet resultSet = statement.executeQuery(sql);
-      Log.i(TAG, sql);
-      return new SQLiteResultSet(resultSet, statement);
-    } catch (SQLException e) {
-      closeQuietly(statement);
-      throw e;
-    }
+    final QueryCache cache = queryCache;
+    if (cache == null || inTransaction()) return executeQuery(sql);
+    ResultSet cached = cache.get(sql, null);
+    if (cached != null) return cached;
+    cache.loadViews(conn);
+    QueryCache.Ticket ticket = cache.begin(sql, null);
+    return (ticket == null) ? executeQuery(sql) : cache.put(ticket, executeQuery(sql));
   }
   public ResultSet query(String sql, Object... bindArgs) throws SQLException {
-    PreparedStatement statement = null;
-    try {
-      statement = conn.prepareStatement(sql/*, ResultSet.TYPE_FORWARD_ONLY, 
-              ResultSet.CONCUR_READ_ONLY, ResultSet.CLOSE_CURSORS_AT_COMMIT*/);
-      prepareBind(statement, bindArgs);
-      ResultSet resultSet = statement.executeQuery();
-      Log.i(TAG, sql + " " + Arrays.toString(bindArgs));
-      return new SQLiteResultSet(resultSet, statement);
-    } catch (SQLException e) {
-      closeQuietly(statement);
-      throw e;
+    final QueryCache cache = queryCache;
+    if (cache == null || inTransaction()) return executeQuery(sql, bindArgs);
+    ResultSet cached = cache.get(sql, bindArgs);
+    if (cached != null) return cached;
+    cache.loadViews(conn);
+    QueryCache.Ticket ticket = cache.begin(sql, bindArgs);
+    return (ticket == null) ? executeQuery(sql, bindArgs)
+            : cache.put(ticket, executeQuery(sql, bindArgs));
+  }
+
+  private ResultSet executeQuery(String sql) throws SQLException {
+    final long start = startTimer();
+    for (int attempt = 1; ; attempt++) {
+      Statement statement = null;
+      try {
+        statement = conn.createStatement(/*ResultSet.TYPE_FORWARD_ONLY, 
+                ResultSet.CONCUR_READ_ONLY, ResultSet.CLOSE_CURSORS_AT_COMMIT*/);
+        ResultSet resultSet = statement.executeQuery(sql);
+        if (Log.isDebuggable()) Log.i(TAG, sql);
+        return newResultSet(resultSet, statement, sql, null, start);
+      } catch (SQLException e) {
+        closeQuietly(statement);
+        if (retry(e, attempt, start, false)) continue;
+        recordError(sql, start);
+        throw e;
+      }
+    }
+  }
+  private ResultSet executeQuery(String sql, Object[] bindArgs) throws SQLException {
+    final long start = startTimer();
+    for (int attempt = 1; ; attempt++) {
+      PreparedStatement statement = null;
+      try {
+        statement = compileStatement(sql);
+        prepareBind(statement, bindArgs);
+        ResultSet resultSet = statement.executeQuery();
+        if (Log.isDebuggable()) Log.i(TAG, sql + " " + Arrays.toString(bindArgs));
+        return newResultSet(resultSet, statement, sql, bindArgs, start);
+      } catch (SQLException e) {
+        closeQuietly(statement);
+        if (retry(e, attempt, start, false)) continue;
+        recordError(sql, start);
+        throw e;
+      }
     }
   }
 
+  private SQLiteResultSet newResultSet(ResultSet resultSet, Statement statement,
+          String sql, Object[] bindArgs, long start) {
+    SQLiteResultSet result = new SQLiteResultSet(resultSet, statement);
+    if (start != 0) result.recordOnClose(this, sql, bindArgs, start);
+    return result;
+  }
+
+  /**
+   * Ejecuta un query y devuelve sus filas de forma perezosa: cada fila se
+   * lee del cursor cuando se pide, así la memoria no depende del tamaño del
+   * resultado. No pasa por la cache de resultados.
+   *
+   * @param sql sentencia select
+   * @param mapper convierte cada fila en un objeto
+   * @param bindArgs valores de la sentencia
+   * @return iterador que cierra el cursor al agotarse o con close()
+   * @throws SQLException
+   */
+  public <T> RowIterator<T> queryIterator(String sql, RowMapper<T> mapper,
+          Object... bindArgs) throws SQLException {
+    return new RowIterator<T>(executeQuery(sql, bindArgs), mapper);
+  }
+
+  /**
+   * Publica las filas de un query: el cursor avanza solo cuando el
+   * suscriptor pide filas y se cierra al completar o cancelar. No pasa por
+   * la cache de resultados.
+   *
+   * @param sql sentencia select
+   * @param mapper convierte cada fila en un objeto
+   * @param bindArgs valores de la sentencia
+   * @return publicador; cada suscripción ejecuta el query
+   */
+  public <T> RowPublisher<T> publish(String sql, RowMapper<T> mapper,
+          Object... bindArgs) {
+    return new RowPublisher<T>(this, sql, mapper, bindArgs);
+  }
+
+  /**
+   * Escribe las filas de un query en el canal, leídas del cursor conforme se
+   * escriben; no pasa por la cache de resultados.
+   *
+   * @param sql sentencia select
+   * @param bindArgs valores de la sentencia, o null
+   * @param format formato de salida
+   * @param channel destino, no se cierra
+   * @return el número de filas escritas
+   * @throws SQLException
+   * @throws IOException si falla la escritura en el canal
+   * @see RowExporter
+   */
+  public long export(String sql, Object[] bindArgs, RowExporter.Format format,
+          WritableByteChannel channel) throws SQLException, IOException {
+    return export(sql, bindArgs, format, channel, Boolean.FALSE);
+  }
+
+  /**
+   * Igual que {@link #export(String, Object[], RowExporter.Format,
+   * WritableByteChannel)}, con la salida comprimida con gzip si
+   * <code>gzip</code> es true.
+   */
+  public long export(String sql, Object[] bindArgs, RowExporter.Format format,
+          WritableByteChannel channel, boolean gzip) throws SQLException, IOException {
+    return RowExporter.get().export(executeQuery(sql, bindArgs), format, channel, gzip);
+  }
+
+  /**
+   * Ejecuta un query y lee todas sus filas por columnas en buffers de tipos
+   * primitivos, sin crear un objeto por valor. No pasa por la cache de
+   * resultados.
+   *
+   * @param sql sentencia select
+   * @param types tipo en el que se lee cada columna del query
+   * @param bindArgs valores de la sentencia
+   * @return el resultado por columnas
+   * @throws SQLException
+   */
+  public ColumnarResult queryColumns(String sql, ColumnarResult.Type[] types,
+          Object... bindArgs) throws SQLException {
+    return ColumnarResult.read(executeQuery(sql, bindArgs), types, false);
+  }
+
+  /**
+   * Igual que {@link #queryColumns(String, ColumnarResult.Type[], Object...)}
+   * pero guarda los valores en buffers directos, fuera del heap.
+   */
+  public ColumnarResult queryColumnsOffHeap(String sql, ColumnarResult.Type[] types,
+          Object... bindArgs) throws SQLException {
+    return ColumnarResult.read(executeQuery(sql, bindArgs), types, true);
+  }
+
   public void execSQL(String sql) throws SQLException {
-    try (Statement statement = createStatement()) {
-      statement.execute(sql);
+    final long start = startTimer();
+    for (int attempt = 1; ; attempt++) {
+      try (Statement statement = createStatement()) {
+        statement.execute(sql);
+        break;
+      } catch (SQLException e) {
+        // Un COMMIT que falla con BUSY deja la transacción abierta.
+        if (retry(e, attempt, start, endsTransaction(sql))) continue;
+        recordError(sql, start);
+        throw e;
+      }
     }
+    record(sql, null, 0, start);
+    if (isSchemaChange(sql)) statementCache.clear();
+    afterWrite(sql);
   }
   public void execSQL(String sql, Object... bindArgs) throws SQLException {
-    try (PreparedStatement statement = compileStatement(sql)) {
-      prepareBind(statement, bindArgs);
-      statement.execute();
+    final long start = startTimer();
+    for (int attempt = 1; ; attempt++) {
+      try (PreparedStatement statement = compileStatement(sql)) {
+        prepareBind(statement, bindArgs);
+        statement.execute();
+        break;
+      } catch (SQLException e) {
+        if (retry(e, attempt, start, endsTransaction(sql))) continue;
+        recordError(sql, start);
+        throw e;
+      }
     }
+    record(sql, bindArgs, 0, start);
+    if (isSchemaChange(sql)) statementCache.clear();
+    afterWrite(sql);
+  }
+
+  /** Indica si la sentencia modifica el esquema: CREATE, DROP o ALTER. */
+  private static boolean isSchemaChange(String sql) {
+    return startsWithKeyword(sql, "CREATE")
+            || startsWithKeyword(sql, "DROP")
+            || startsWithKeyword(sql, "ALTER");
+  }
+
+  /** Indica si la sentencia empieza con la palabra clave dada. */
+  static boolean startsWithKeyword(String sql, String keyword) {
+    int i = 0;
+    while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) i++;
+    return sql.regionMatches(true, i, keyword, 0, keyword.length());
   }
 
   /**
@@ -117,11 +583,25 @@ public class SQLiteDatabase implements AutoCloseable {
    * @throws SQLException 
    */
   public int executeUpdate(String sql, Object... bindArgs) throws SQLException {
-    try (PreparedStatement statement = compileStatement(sql)) {
-      prepareBind(statement, bindArgs);
-      int rows = statement.executeUpdate();
-      Log.i(TAG, sql + " " + Arrays.toString(bindArgs));
-      return rows;
+    return executeUpdate(sql, null, bindArgs);
+  }
+
+  private int executeUpdate(String sql, ContentValues values, Object[] bindArgs)
+          throws SQLException {
+    final long start = startTimer();
+    for (int attempt = 1; ; attempt++) {
+      try (PreparedStatement statement = compileStatement(sql)) {
+        prepareBind(statement, values, bindArgs);
+        int rows = statement.executeUpdate();
+        record(sql, values, bindArgs, rows, start);
+        afterWrite(sql);
+        if (Log.isDebuggable()) Log.i(TAG, sql + " " + argsToString(values, bindArgs));
+        return rows;
+      } catch (SQLException e) {
+        if (retry(e, attempt, start, false)) continue;
+        recordError(sql, start);
+        throw e;
+      }
     }
   }
 
@@ -137,18 +617,34 @@ public class SQLiteDatabase implements AutoCloseable {
    */
   public long insertAndGetId(String sql, Object... bindArgs)
           throws SQLException {
-    try (PreparedStatement ps = conn.prepareStatement(sql,
-                    Statement.RETURN_GENERATED_KEYS)) {
-      prepareBind(ps, bindArgs);
-      if (ps.executeUpdate() > 0) {
-        Log.i(TAG, sql + " " + Arrays.toString(bindArgs));
-        // obtengo las ultimas llaves generadas
-        try (ResultSet rs = ps.getGeneratedKeys()) {
-          // retorna la llave.
-          return rs.next() ? rs.getLong(1) : 0;
+    return insertAndGetId(sql, null, bindArgs);
+  }
+
+  private long insertAndGetId(String sql, ContentValues values, Object[] bindArgs)
+          throws SQLException {
+    final long start = startTimer();
+    for (int attempt = 1; ; attempt++) {
+      try (PreparedStatement ps = statementCache.acquire(sql, true)) {
+        prepareBind(ps, values, bindArgs);
+        final int rows = ps.executeUpdate();
+        afterWrite(sql);
+        if (rows > 0) {
+          if (Log.isDebuggable()) Log.i(TAG, sql + " " + argsToString(values, bindArgs));
+          // obtengo las ultimas llaves generadas
+          try (ResultSet rs = ps.getGeneratedKeys()) {
+            // retorna la llave.
+            long id = rs.next() ? rs.getLong(1) : 0;
+            record(sql, values, bindArgs, 1, start);
+            return id;
+          }
+        } else {
+          record(sql, values, bindArgs, 0, start);
+          return -1;
         }
-      } else {
-        return -1;
+      } catch (SQLException e) {
+        if (retry(e, attempt, start, false)) continue;
+        recordError(sql, start);
+        throw e;
       }
     }
   }
@@ -168,29 +664,154 @@ public class SQLiteDatabase implements AutoCloseable {
    */
   public long insertWithOnConflict(String table, Map<String, Object> initialValues, 
           String conflictAlgorithm) throws SQLException {
-    StringBuilder sql = new StringBuilder();
-    sql.append("INSERT ");
-    sql.append(conflictAlgorithm);
-    sql.append(" INTO ");
-    sql.append(table);
-    sql.append('(');
-
-    int size = initialValues.size();
-    Object[] bindArgs = new Object[size];
-    int i = 0;
-    for (String colName : initialValues.keySet()) {
-      sql.append((i > 0) ? "," : "");
-      sql.append(colName);
-      bindArgs[i++] = initialValues.get(colName);
+    SqlTemplates.Template template = SqlTemplates.insert(table, conflictAlgorithm,
+            initialValues.keySet(), null);
+    return insertAndGetId(template.sql, template.bindArgs(initialValues));
+  }
+
+  /**
+   * Inserta un registro enlazando cada valor con el método de su tipo.
+   *
+   * @see #insertWithOnConflict(String, Map, String)
+   */
+  public long insertWithOnConflict(String table, ContentValues initialValues,
+          String conflictAlgorithm) throws SQLException {
+    SqlTemplates.Template template = SqlTemplates.insert(table, conflictAlgorithm,
+            initialValues);
+    return insertAndGetId(template.sql, initialValues, null);
+  }
+
+  /**
+   * Inserta varios registros por lotes con <code>executeBatch</code>.
+   *
+   * Las filas consecutivas con las mismas columnas comparten la sentencia.
+   * Si no hay una transacción en curso se confirma una transacción cada
+   * {@link #DEFAULT_BATCH_SIZE} filas; ante un error se revierte el lote en
+   * curso y los anteriores quedan confirmados.
+   *
+   * @param table nombre de la tabla donde se van a insertar las filas
+   * @param rows filas a insertar, las claves son los nombres de las columnas
+   * @param conflictAlgorithm OR ROLLBACK, OR ABORT, OR FAIL, OR IGNORE, OR REPLACE
+   *
+   * @return el número de filas insertadas
+   *
+   * @throws SQLException
+   */
+  public int insertAll(String table, Iterable<? extends Map<String, Object>> rows,
+          String conflictAlgorithm) throws SQLException {
+    return insertAll(table, rows, conflictAlgorithm, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Inserta varios registros por lotes de <code>batchSize</code> filas.
+   *
+   * @see #insertAll(String, Iterable, String)
+   */
+  public int insertAll(String table, Iterable<? extends Map<String, Object>> rows,
+          String conflictAlgorithm, int batchSize) throws SQLException {
+    return insertAll(table, rows, conflictAlgorithm, null, batchSize);
+  }
+
+  private int insertAll(String table, Iterable<? extends Map<String, Object>> rows,
+          String conflictAlgorithm, String[] conflictTarget, int batchSize)
+          throws SQLException {
+    if (batchSize < 1) throw new IllegalArgumentException("batchSize < 1");
+    final boolean ownTransaction = !inTransaction();
+    if (ownTransaction) beginTransaction();
+    PreparedStatement ps = null;
+    Set<String> columnSet = null;
+    String[] columns = null;
+    int pending = 0;
+    int total = 0;
+    try {
+      for (Map<String, Object> row : rows) {
+        if (columnSet == null || !columnSet.equals(row.keySet())) {
+          if (ps != null) {
+            total += sumBatch(ps.executeBatch());
+            ps.close();
+          }
+          columnSet = new HashSet<String>(row.keySet());
+          SqlTemplates.Template template = SqlTemplates.insert(table,
+                  conflictAlgorithm, columnSet, conflictTarget);
+          columns = template.columns;
+          markWritten(template.sql);
+          ps = compileStatement(template.sql);
+          pending = 0;
+        }
+        for (int i = 0; i < columns.length; i++) {
+          ps.setObject(i + 1, row.get(columns[i]));
+        }
+        ps.addBatch();
+        if (++pending == batchSize) {
+          total += sumBatch(ps.executeBatch());
+          pending = 0;
+          if (ownTransaction) setTransactionSuccessful();
+        }
+      }
+      if (pending > 0) {
+        total += sumBatch(ps.executeBatch());
+      }
+      if (ownTransaction) setTransactionSuccessful();
+      if (Log.isDebuggable()) Log.i(TAG, "Inserted " + total + " rows into " + table);
+      return total;
+    } catch (SQLException e) {
+      if (ownTransaction) rollback();
+      throw e;
+    } finally {
+      closeQuietly(ps);
+      if (ownTransaction) endTransaction();
     }
-    sql.append(')');
-    sql.append(" VALUES (");
-    for (i = 0; i < size; i++) {
-      sql.append((i > 0) ? ",?" : "?");
+  }
+
+  /**
+   * Inserta varios registros y obtiene sus ids, en transacciones de
+   * {@link #DEFAULT_BATCH_SIZE} filas si no hay una transacción en curso.
+   *
+   * @param table nombre de la tabla donde se van a insertar las filas
+   * @param rows filas a insertar, las claves son los nombres de las columnas
+   * @param conflictAlgorithm OR ROLLBACK, OR ABORT, OR FAIL, OR IGNORE, OR REPLACE
+   *
+   * @return el id de cada fila en el orden de <code>rows</code>, con los
+   * mismos valores que {@link #insertAndGetId(String, Object...)}
+   *
+   * @throws SQLException
+   */
+  public long[] insertAllAndGetIds(String table,
+          Iterable<? extends Map<String, Object>> rows,
+          String conflictAlgorithm) throws SQLException {
+    final boolean ownTransaction = !inTransaction();
+    if (ownTransaction) beginTransaction();
+    long[] ids = new long[16];
+    int count = 0;
+    try {
+      for (Map<String, Object> row : rows) {
+        if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+        ids[count++] = insertWithOnConflict(table, row, conflictAlgorithm);
+        if (ownTransaction && count % DEFAULT_BATCH_SIZE == 0) {
+          setTransactionSuccessful();
+        }
+      }
+      if (ownTransaction) setTransactionSuccessful();
+      return Arrays.copyOf(ids, count);
+    } catch (SQLException e) {
+      if (ownTransaction) rollback();
+      throw e;
+    } finally {
+      if (ownTransaction) endTransaction();
     }
-    sql.append(')');
+  }
 
-    return insertAndGetId(sql.toString(), bindArgs);
+  /** Suma las filas afectadas que devuelve <code>executeBatch</code>. */
+  private static int sumBatch(int[] counts) {
+    int total = 0;
+    for (int count : counts) {
+      if (count > 0) {
+        total += count;
+      } else if (count == Statement.SUCCESS_NO_INFO) {
+        total++;
+      }
+    }
+    return total;
   }
   
   public long insert(String table, Map<String, Object> values) {
@@ -202,6 +823,15 @@ public class SQLiteDatabase implements AutoCloseable {
     }
   }
 
+  public long insert(String table, ContentValues values) {
+    try {
+      return insertWithOnConflict(table, values, "");
+    } catch(SQLException e) {
+      Log.e(TAG, "Error inserting " + values, e);
+      return -1;
+    }
+  }
+
   /**
    * Cuando se produce una violación de restricción UNIQUE o PRIMARY KEY, 
    * la REPLACE declaración:
@@ -243,36 +873,22 @@ public class SQLiteDatabase implements AutoCloseable {
   public int updateWithOnConflict(String table, Map<String, Object> values,
           String conflictAlgorithm, String whereClause, 
           Object... whereArgs) throws SQLException {
-    StringBuilder sql = new StringBuilder();
-    sql.append("UPDATE ");
-    sql.append(conflictAlgorithm);
-    sql.append(" ");
-    sql.append(table);
-    sql.append(" SET ");
-
-    int setValuesSize = values.size();
-    int bindArgsSize = (whereArgs == null) ? setValuesSize
-            : (setValuesSize + whereArgs.length);
-    Object[] bindArgs = new Object[bindArgsSize];
-    int i = 0;
-    for (String colName : values.keySet()) {
-      sql.append((i > 0) ? "," : "");
-      sql.append(colName);
-      bindArgs[i++] = values.get(colName);
-      sql.append("=?");
-    }
-
-    if (whereArgs != null) {
-      for (i = setValuesSize; i < bindArgsSize; i++) {
-        bindArgs[i] = whereArgs[i - setValuesSize];
-      }
-    }
-    if (whereClause != null && !whereClause.isEmpty()) {
-      sql.append(" WHERE ");
-      sql.append(whereClause);
-    }
+    SqlTemplates.Template template = SqlTemplates.update(table, conflictAlgorithm,
+            values.keySet(), whereClause);
+    return executeUpdate(template.sql, template.bindArgs(values, whereArgs));
+  }
 
-    return executeUpdate(sql.toString(), bindArgs);
+  /**
+   * Actualiza registros enlazando cada valor con el método de su tipo.
+   *
+   * @see #updateWithOnConflict(String, Map, String, String, Object...)
+   */
+  public int updateWithOnConflict(String table, ContentValues values,
+          String conflictAlgorithm, String whereClause,
+          Object... whereArgs) throws SQLException {
+    SqlTemplates.Template template = SqlTemplates.update(table, conflictAlgorithm,
+            values, whereClause);
+    return executeUpdate(template.sql, values, whereArgs);
   }
   
   public int update(String table,  Map<String, Object> values, 
@@ -285,6 +901,131 @@ public class SQLiteDatabase implements AutoCloseable {
     }
   }
 
+  public int update(String table, ContentValues values,
+          String whereClause, Object... whereArgs) {
+    try {
+      return updateWithOnConflict(table, values, "", whereClause, whereArgs);
+    } catch (SQLException e) {
+      Log.e(TAG, "Error updating " + values, e);
+      return -1;
+    }
+  }
+
+  /**
+   * Inserta un registro o, si ya existe uno con los mismos valores en las
+   * columnas <code>conflictTarget</code>, actualiza sus demás columnas. Se
+   * ejecuta en una sola sentencia:
+   * <pre>
+   * INSERT INTO [table](..) VALUES(..)
+   *   ON CONFLICT([conflictTarget]) DO UPDATE SET col=excluded.col, ..
+   * </pre>
+   *
+   * Para saber si la fila se creó o se actualizó, antes se busca una fila
+   * con los mismos valores en <code>conflictTarget</code>, en la misma
+   * transacción que el insert; si no hay una transacción en curso se usa un
+   * savepoint de {@link #runInTransaction}. En tablas WITHOUT ROWID el id
+   * de la fila creada no tiene sentido.
+   *
+   * @param table nombre de la tabla
+   * @param values valores de la fila, las claves son los nombres de las columnas
+   * @param conflictTarget columnas de una restricción UNIQUE o PRIMARY KEY
+   *
+   * @return el estado de la operación; si no cambió ninguna fila no se
+   * informa como creada ni como actualizada
+   *
+   * @throws SQLException
+   */
+  public CreateOrUpdateStatus upsert(String table, Map<String, Object> values,
+          String[] conflictTarget) throws SQLException {
+    if (conflictTarget == null) {
+      throw new IllegalArgumentException("conflictTarget is null");
+    }
+    SqlTemplates.Template template = SqlTemplates.insert(table, null,
+            values.keySet(), conflictTarget);
+    final String sql = template.sql;
+    final Object[] bindArgs = template.bindArgs(values);
+    final String existsSql = buildExistsSql(table, conflictTarget);
+    final Object[] targetArgs = new Object[conflictTarget.length];
+    for (int i = 0; i < conflictTarget.length; i++) {
+      targetArgs[i] = getIgnoreCase(values, conflictTarget[i]);
+    }
+    synchronized (this) {
+      return runInTransaction(new TransactionWork<CreateOrUpdateStatus>() {
+        @Override public CreateOrUpdateStatus execute(SQLiteDatabase db)
+                throws SQLException {
+          final boolean exists;
+          try (ResultSet rs = executeQuery(existsSql, targetArgs)) {
+            exists = rs.next();
+          }
+          int rows = executeUpdate(sql, bindArgs);
+          if (rows == 0) {
+            return new CreateOrUpdateStatus(Boolean.FALSE, Boolean.FALSE, 0, -1);
+          }
+          if (exists) {
+            return new CreateOrUpdateStatus(Boolean.FALSE, Boolean.TRUE, rows, -1);
+          }
+          return new CreateOrUpdateStatus(Boolean.TRUE, Boolean.FALSE, rows,
+                  lastInsertRowId());
+        }
+      });
+    }
+  }
+
+  /**
+   * <code>SELECT 1 FROM [table] WHERE c1=? AND ..</code>; con un valor NULL
+   * no encuentra nada, igual que la restricción no choca con NULL.
+   */
+  private static String buildExistsSql(String table, String[] columns) {
+    StringBuilder sql = new StringBuilder();
+    sql.append("SELECT 1 FROM ").append(table).append(" WHERE ");
+    for (int i = 0; i < columns.length; i++) {
+      sql.append((i > 0) ? " AND " : "");
+      sql.append(columns[i]).append("=?");
+    }
+    return sql.append(" LIMIT 1").toString();
+  }
+
+  private static Object getIgnoreCase(Map<String, Object> values, String key) {
+    if (values.containsKey(key)) return values.get(key);
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      if (entry.getKey().equalsIgnoreCase(key)) return entry.getValue();
+    }
+    return null;
+  }
+
+  /**
+   * Inserta o actualiza varios registros por lotes con la misma sentencia
+   * que {@link #upsert(String, Map, String[])}, en transacciones de
+   * {@link #DEFAULT_BATCH_SIZE} filas si no hay una transacción en curso.
+   *
+   * @param table nombre de la tabla
+   * @param rows filas, las claves son los nombres de las columnas
+   * @param conflictTarget columnas de una restricción UNIQUE o PRIMARY KEY
+   *
+   * @return el número de filas insertadas o actualizadas
+   *
+   * @throws SQLException
+   */
+  public int upsertAll(String table, Iterable<? extends Map<String, Object>> rows,
+          String[] conflictTarget) throws SQLException {
+    return insertAll(table, rows, null, conflictTarget, DEFAULT_BATCH_SIZE);
+  }
+
+  private long lastInsertRowId() throws SQLException {
+    try (PreparedStatement ps = compileStatement("SELECT last_insert_rowid()");
+            ResultSet rs = ps.executeQuery()) {
+      return rs.next() ? rs.getLong(1) : 0;
+    }
+  }
+
+  /**
+   * Actualiza las filas de <code>whereClause</code> y, si no cambió ninguna,
+   * inserta el registro con <code>INSERT OR IGNORE</code>.
+   *
+   * @deprecated son dos sentencias sin transacción; usar
+   * {@link #upsert(String, Map, String[])}, que lo hace en una sola.
+   */
+  @Deprecated
   public CreateOrUpdateStatus upsert(String table, Map<String, Object> values,
           String whereClause, Object... whereArgs) {
     try {
@@ -347,6 +1088,20 @@ public class SQLiteDatabase implements AutoCloseable {
     execSQL("PRAGMA user_version = " + version);
   }
   
+  /**
+   * Obtiene el valor efectivo de un PRAGMA.
+   *
+   * @param name nombre del PRAGMA, p.ej. <code>journal_mode</code>
+   * @return el valor o null si el PRAGMA no devuelve nada
+   * @throws SQLException
+   */
+  public String getPragma(String name) throws SQLException {
+    try (Statement stmt = createStatement();
+            ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+      return rs.next() ? rs.getString(1) : null;
+    }
+  }
+  
   /** Obtiene un valor numerico segun el query que se forme con los parametros. */
   public long getLong(String campo, String tabla, String where, Object... vars)
   throws SQLException {
@@ -368,7 +1123,42 @@ public class SQLiteDatabase implements AutoCloseable {
   public QueryBuilder table(String table) {
     return new QueryBuilder(this).from(table);
   }
+
+  /**
+   * Copia en línea de la base de datos o restauración desde una copia.
+   *
+   * @see OnlineBackup
+   */
+  public OnlineBackup backup() {
+    return new OnlineBackup(this);
+  }
+
+  /**
+   * Importador de archivos CSV o NDJSON a la tabla.
+   *
+   * @see BulkImporter
+   */
+  public BulkImporter importer(String table) {
+    return new BulkImporter(this, table);
+  }
   
+  /**
+   * Interrumpe la sentencia que se está ejecutando en esta conexión, que
+   * termina con un error <code>SQLITE_INTERRUPT</code>. Puede llamarse desde
+   * otro hilo.
+   *
+   * @throws SQLException
+   */
+  public void interrupt() throws SQLException {
+    if (conn instanceof SQLiteConnection) {
+      ((SQLiteConnection) conn).getDatabase().interrupt();
+    } else {
+      try (Statement statement = conn.createStatement()) {
+        statement.cancel();
+      }
+    }
+  }
+
   public boolean isClosed() throws SQLException {
     return conn.isClosed();
   }
@@ -377,19 +1167,149 @@ public class SQLiteDatabase implements AutoCloseable {
     return conn.isReadOnly();
   }
 
+  /**
+   * Indica si hay una transacción en curso, abierta con
+   * {@link #beginTransaction()}, con {@link #runInTransaction} o con un
+   * <code>BEGIN</code> en {@link #execSQL(String)}.
+   */
+  public boolean inTransaction() throws SQLException {
+    return transactionDepth.get() > 0 || sqlTransaction || !conn.getAutoCommit();
+  }
+
+  /**
+   * Ejecuta un trabajo en una transacción con {@link TransactionMode#IMMEDIATE}.
+   *
+   * @see #runInTransaction(TransactionMode, TransactionWork)
+   */
+  public <T> T runInTransaction(TransactionWork<T> work) throws SQLException {
+    return runInTransaction(TransactionMode.IMMEDIATE, work);
+  }
+
+  /**
+   * Ejecuta un trabajo en una transacción: si termina sin excepción se
+   * confirma, si no se revierte y la excepción se vuelve a lanzar.
+   *
+   * Las llamadas anidadas, o dentro de {@link #beginTransaction()}, usan un
+   * <code>SAVEPOINT</code>: al fallar solo se revierte lo que hizo el trabajo
+   * anidado y la transacción externa puede continuar. En ese caso se ignora
+   * <code>mode</code>.
+   *
+   * Para revertir sin otro error, el trabajo puede llamar a
+   * {@link #rollback()}, que lanza {@link RollbackException}.
+   *
+   * <pre>
+   * long id = db.runInTransaction(TransactionMode.IMMEDIATE,
+   *     new TransactionWork&lt;Long&gt;() {
+   *       public Long execute(SQLiteDatabase db) throws SQLException {
+   *         db.executeUpdate("UPDATE stock SET qty = qty - 1 WHERE id = ?", 1);
+   *         return db.insert("orders", order);
+   *       }
+   *     });
+   * </pre>
+   *
+   * @param mode cómo toma los bloqueos la transacción
+   * @param work trabajo a ejecutar
+   * @return el resultado del trabajo
+   * @throws SQLException
+   */
+  public <T> T runInTransaction(TransactionMode mode, TransactionWork<T> work)
+          throws SQLException {
+    final String savepoint = inTransaction()
+            ? "sp" + (transactionDepth.get() + 1) : null;
+    execSQL((savepoint == null) ? "BEGIN " + mode.name() : "SAVEPOINT " + savepoint);
+    transactionDepth.incrementAndGet();
+    T result;
+    try {
+      result = work.execute(this);
+    } catch (Throwable e) {
+      transactionDepth.decrementAndGet();
+      rollbackQuietly(savepoint, e);
+      throw e;
+    }
+    transactionDepth.decrementAndGet();
+    try {
+      execSQL((savepoint == null) ? "COMMIT" : "RELEASE " + savepoint);
+    } catch (SQLException e) {
+      // Con SQLITE_BUSY el COMMIT falla y la transacción sigue abierta.
+      rollbackQuietly(savepoint, e);
+      throw e;
+    }
+    return result;
+  }
+
+  /**
+   * Revierte la transacción o el savepoint; un error al revertir se agrega a
+   * la excepción original.
+   */
+  private void rollbackQuietly(String savepoint, Throwable cause) {
+    try {
+      if (savepoint == null) {
+        execSQL("ROLLBACK");
+      } else {
+        execSQL("ROLLBACK TO " + savepoint);
+        execSQL("RELEASE " + savepoint);
+      }
+    } catch (SQLException e) {
+      cause.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Inicia una transacción; cada {@link #setTransactionSuccessful()} confirma
+   * lo hecho hasta el momento y {@link #endTransaction()} la termina.
+   *
+   * Dentro de {@link #runInTransaction}, p.ej. en las migraciones de
+   * {@link SQLiteOpenHelper}, las tres llamadas no hacen nada: la
+   * transacción externa confirma o revierte todo. {@link #rollback()} en
+   * cambio lanza {@link RollbackException} para que se revierta.
+   */
   public void beginTransaction() throws SQLException {
+    if (transactionDepth.get() > 0) return;
     conn.setAutoCommit(Boolean.FALSE); 
+    transactionStart = startTimer();
   }
 
   public void setTransactionSuccessful() throws SQLException {
-    conn.commit();
+    if (transactionDepth.get() > 0) return;
+    final long start = startTimer();
+    for (int attempt = 1; ; attempt++) {
+      try {
+        conn.commit();
+        break;
+      } catch (SQLException e) {
+        // Un COMMIT que falla con BUSY deja la transacción abierta.
+        if (retry(e, attempt, start, true)) continue;
+        recordError("COMMIT", transactionStart);
+        throw e;
+      }
+    }
+    record("COMMIT", null, 0, transactionStart);
+    invalidateWrittenTables(true);
+    // Con autoCommit en false empieza otra transacción.
+    transactionStart = startTimer();
   }
 
   public void endTransaction() throws SQLException {
+    if (transactionDepth.get() > 0) return;
     conn.setAutoCommit(Boolean.TRUE);
+    invalidateWrittenTables(true);
   }
 
+  /**
+   * Revierte lo hecho desde el último {@link #setTransactionSuccessful()}.
+   *
+   * Dentro de {@link #runInTransaction} no hay transacción JDBC que revertir:
+   * lanza {@link RollbackException} y, al propagarse, runInTransaction
+   * revierte su nivel (la transacción o el savepoint del trabajo anidado).
+   *
+   * @throws RollbackException si se llama dentro de runInTransaction
+   * @throws SQLException
+   */
   public void rollback() throws SQLException {
+    if (transactionDepth.get() > 0) throw new RollbackException();
     conn.rollback();
+    record("ROLLBACK", null, 0, transactionStart);
+    invalidateWrittenTables(true);
+    transactionStart = startTimer();
   }
 }
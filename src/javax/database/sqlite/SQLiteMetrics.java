@@ -0,0 +1,271 @@
+package javax.database.sqlite;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Métricas de latencia por sentencia: ejecuciones, errores, filas y un
+ * histograma de tiempos del que se obtienen p50, p95, p99 y máximo.
+ *
+ * Las sentencias se agrupan por su sql normalizado (valores literales
+ * reemplazados por <code>?</code> y espacios colapsados). Después de
+ * {@value #MAX_SHAPES} formas distintas, las nuevas se acumulan juntas en
+ * {@value #OTHER_SQL}. El registro solo usa contadores atómicos, sin
+ * bloqueos.
+ *
+ * <pre>
+ * SQLiteMetrics metrics = new SQLiteMetrics();
+ * metrics.register("main");
+ * db.setMetrics(metrics);
+ * </pre>
+ */
+public class SQLiteMetrics implements SQLiteMetricsMXBean {
+
+  /** Límite de textos sql distintos que se recuerdan ya normalizados. */
+  private static final int MAX_SQL_KEYS = 4096;
+
+  /** Límite de sentencias normalizadas con estadísticas propias. */
+  public static final int MAX_SHAPES = 1024;
+
+  /** Sql con el que aparecen las sentencias que no caben en el límite. */
+  public static final String OTHER_SQL = "(other)";
+
+  private final ConcurrentMap<String, Stats> bySql =
+          new ConcurrentHashMap<String, Stats>();
+  private final ConcurrentMap<String, Stats> byShape =
+          new ConcurrentHashMap<String, Stats>();
+  private ObjectName objectName;
+
+  /**
+   * Registra las métricas en el servidor JMX de la plataforma como
+   * <code>javax.database.sqlite:type=SQLiteMetrics,name=[name]</code>.
+   *
+   * @param name nombre que identifica la base de datos
+   * @throws JMException
+   */
+  public synchronized void register(String name) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    objectName = new ObjectName("javax.database.sqlite:type=SQLiteMetrics,name="
+            + ObjectName.quote(name));
+    server.registerMBean(this, objectName);
+  }
+
+  /** Quita las métricas del servidor JMX. */
+  public synchronized void unregister() throws JMException {
+    if (objectName != null) {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      objectName = null;
+    }
+  }
+
+  /**
+   * Obtiene las estadísticas de una sentencia.
+   *
+   * @param sql texto sql tal como se ejecutó
+   * @return el acumulador de su forma normalizada
+   */
+  Stats stats(String sql) {
+    Stats stats = bySql.get(sql);
+    if (stats != null) return stats;
+    String shape = normalize(sql);
+    stats = byShape.get(shape);
+    if (stats == null) {
+      // Entre hilos el límite puede pasarse por unas pocas entradas.
+      if (byShape.size() >= MAX_SHAPES) shape = OTHER_SQL;
+      Stats created = new Stats(shape);
+      stats = byShape.putIfAbsent(shape, created);
+      if (stats == null) stats = created;
+    }
+    if (bySql.size() < MAX_SQL_KEYS) bySql.put(sql, stats);
+    return stats;
+  }
+
+  /**
+   * Registra una ejecución.
+   *
+   * @param sql texto sql
+   * @param rows filas afectadas o devueltas
+   * @param nanos duración en nanosegundos
+   */
+  public void record(String sql, long rows, long nanos) {
+    stats(sql).record(rows, nanos);
+  }
+
+  /** Registra una ejecución que terminó en error. */
+  public void recordError(String sql, long nanos) {
+    stats(sql).recordError(nanos);
+  }
+
+  /** Copia de las estadísticas de todas las sentencias. */
+  public List<StatementSnapshot> snapshot() {
+    List<StatementSnapshot> list = new ArrayList<StatementSnapshot>(byShape.size());
+    for (Stats stats : byShape.values()) {
+      list.add(stats.snapshot());
+    }
+    Collections.sort(list, new Comparator<StatementSnapshot>() {
+      @Override public int compare(StatementSnapshot a, StatementSnapshot b) {
+        return Long.compare(b.getTotalMicros(), a.getTotalMicros());
+      }
+    });
+    return list;
+  }
+
+  @Override public List<StatementSnapshot> getStatements() {
+    return snapshot();
+  }
+
+  @Override public int getStatementCount() {
+    return byShape.size();
+  }
+
+  @Override public long getExecutionCount() {
+    long total = 0;
+    for (Stats stats : byShape.values()) {
+      total += stats.count.get();
+    }
+    return total;
+  }
+
+  @Override public void reset() {
+    bySql.clear();
+    byShape.clear();
+  }
+
+  /**
+   * Normaliza una sentencia: reemplaza cadenas y números literales por
+   * <code>?</code> y colapsa los espacios.
+   */
+  static String normalize(String sql) {
+    StringBuilder out = new StringBuilder(sql.length());
+    int i = 0;
+    int n = sql.length();
+    while (i < n) {
+      char c = sql.charAt(i);
+      if (c == '\'') {
+        i++;
+        while (i < n) {
+          if (sql.charAt(i) == '\'') {
+            if (i + 1 < n && sql.charAt(i + 1) == '\'') {
+              i += 2;
+              continue;
+            }
+            break;
+          }
+          i++;
+        }
+        i++;
+        out.append('?');
+      } else if (Character.isDigit(c) && (out.length() == 0
+              || !Character.isLetterOrDigit(out.charAt(out.length() - 1))
+              && out.charAt(out.length() - 1) != '_')) {
+        while (i < n && (Character.isLetterOrDigit(sql.charAt(i))
+                || sql.charAt(i) == '.')) {
+          i++;
+        }
+        out.append('?');
+      } else if (Character.isWhitespace(c)) {
+        while (i < n && Character.isWhitespace(sql.charAt(i))) i++;
+        if (out.length() > 0) out.append(' ');
+      } else {
+        out.append(c);
+        i++;
+      }
+    }
+    int end = out.length();
+    while (end > 0 && out.charAt(end - 1) == ' ') end--;
+    out.setLength(end);
+    return out.toString();
+  }
+
+  /** Acumulador de una sentencia normalizada. */
+  static final class Stats {
+    /** Sub-buckets por cada potencia de dos. */
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    final String sql;
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong errorCount = new AtomicLong();
+    final AtomicLong rows = new AtomicLong();
+    final AtomicLong totalNanos = new AtomicLong();
+    final AtomicLong maxNanos = new AtomicLong();
+    final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    Stats(String sql) {
+      this.sql = sql;
+    }
+
+    void record(long rows, long nanos) {
+      count.incrementAndGet();
+      if (rows > 0) this.rows.addAndGet(rows);
+      addTime(nanos);
+    }
+
+    void recordError(long nanos) {
+      count.incrementAndGet();
+      errorCount.incrementAndGet();
+      addTime(nanos);
+    }
+
+    private void addTime(long nanos) {
+      totalNanos.addAndGet(nanos);
+      histogram.incrementAndGet(bucket(nanos / 1000));
+      long max = maxNanos.get();
+      while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+        max = maxNanos.get();
+      }
+    }
+
+    /** Bucket de un valor: 4 sub-buckets por cada potencia de dos. */
+    static int bucket(long micros) {
+      if (micros < SUB_BUCKETS) return (int) Math.max(micros, 0);
+      int exp = 63 - Long.numberOfLeadingZeros(micros);
+      int sub = (int) (micros >>> (exp - 2)) & (SUB_BUCKETS - 1);
+      return SUB_BUCKETS * (exp - 1) + sub;
+    }
+
+    /** Límite superior, en microsegundos, de los valores de un bucket. */
+    static long upperBound(int bucket) {
+      if (bucket < SUB_BUCKETS) return bucket + 1;
+      int exp = bucket / SUB_BUCKETS + 1;
+      int sub = bucket % SUB_BUCKETS;
+      return (long) (SUB_BUCKETS + sub + 1) << (exp - 2);
+    }
+
+    StatementSnapshot snapshot() {
+      long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = histogram.get(i);
+        total += counts[i];
+      }
+      long max = maxNanos.get() / 1000;
+      return new StatementSnapshot(sql, count.get(), errorCount.get(),
+              rows.get(), totalNanos.get() / 1000,
+              percentile(counts, total, 0.50, max),
+              percentile(counts, total, 0.95, max),
+              percentile(counts, total, 0.99, max), max);
+    }
+
+    private static long percentile(long[] counts, long total, double p, long max) {
+      if (total == 0) return 0;
+      long rank = (long) Math.ceil(total * p);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) return Math.min(upperBound(i), max);
+      }
+      return max;
+    }
+  }
+}
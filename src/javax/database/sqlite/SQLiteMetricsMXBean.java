@@ -0,0 +1,21 @@
+package javax.database.sqlite;
+
+import java.util.List;
+
+/**
+ * Interfaz JMX de {@link SQLiteMetrics}.
+ */
+public interface SQLiteMetricsMXBean {
+
+  /** Estadísticas de cada sentencia, ordenadas por tiempo total. */
+  List<StatementSnapshot> getStatements();
+
+  /** Número de sentencias distintas registradas. */
+  int getStatementCount();
+
+  /** Número total de ejecuciones. */
+  long getExecutionCount();
+
+  /** Borra todas las estadísticas. */
+  void reset();
+}
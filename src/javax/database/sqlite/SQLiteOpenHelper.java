@@ -3,6 +3,8 @@ package javax.database.sqlite;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import org.sqlite.SQLiteConfig;
 
 public abstract class SQLiteOpenHelper {
@@ -14,6 +16,25 @@ public abstract class SQLiteOpenHelper {
 
   private SQLiteDatabase mDatabase;
   private boolean mIsInitializing;
+
+  private PragmaProfile mPragmaProfile;
+  private SQLiteMetrics mMetrics;
+  private SlowQueryLog mSlowQueryLog;
+  private RetryPolicy mRetryPolicy;
+  private QueryCache mQueryCache;
+
+  private int mPoolReaderCount;
+  private long mPoolTimeoutMillis;
+  private SQLiteConnectionPool mPool;
+
+  private int mWriteQueueCapacity;
+  private int mWriteQueueBatchSize;
+  private long mWriteQueueDelayMillis;
+  private WriteQueue mWriteQueue;
+
+  private int mAsyncThreads;
+  private int mAsyncQueueCapacity;
+  private AsyncDatabase mAsyncDatabase;
   
   public SQLiteOpenHelper(String name, int version) {
     this(new File("databases"), name, version);
@@ -31,16 +52,315 @@ public abstract class SQLiteOpenHelper {
     return new File(getDatabasePath(), name);
   }
 
+  /**
+   * Establece el perfil de PRAGMAs que se aplica a cada conexión al abrirla,
+   * antes de {@link #onConfigure(SQLiteDatabase)}. Con null se usan los
+   * valores por defecto de SQLite.
+   *
+   * Las conexiones de solo lectura no aplican journal_mode, synchronous ni
+   * page_size. Con el pool de conexiones activo solo se admiten perfiles en
+   * modo WAL ({@link PragmaProfile#isWal()}).
+   *
+   * @param profile perfil de rendimiento
+   * @throws IllegalStateException si el pool está activo y el perfil no usa
+   * WAL
+   */
+  public synchronized void setPragmaProfile(PragmaProfile profile) {
+    checkPoolProfile(profile, mPoolReaderCount);
+    mPragmaProfile = profile;
+  }
+
+  public synchronized PragmaProfile getPragmaProfile() {
+    return mPragmaProfile;
+  }
+
+  /**
+   * Establece dónde registran sus latencias las conexiones que se abran.
+   *
+   * @param metrics métricas, null para no registrarlas
+   */
+  public synchronized void setMetrics(SQLiteMetrics metrics) {
+    mMetrics = metrics;
+  }
+
+  public synchronized SQLiteMetrics getMetrics() {
+    return mMetrics;
+  }
+
+  /**
+   * Establece dónde registran sus sentencias lentas las conexiones que se
+   * abran.
+   *
+   * @param slowQueryLog registro, null para no registrarlas
+   */
+  public synchronized void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+    mSlowQueryLog = slowQueryLog;
+  }
+
+  public synchronized SlowQueryLog getSlowQueryLog() {
+    return mSlowQueryLog;
+  }
+
+  /**
+   * Establece la política de reintentos ante <code>SQLITE_BUSY</code> de
+   * las conexiones que se abran; la comparten todas las conexiones.
+   *
+   * @param retryPolicy política, null para no reintentar
+   */
+  public synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+    mRetryPolicy = retryPolicy;
+  }
+
+  public synchronized RetryPolicy getRetryPolicy() {
+    return mRetryPolicy;
+  }
+
+  /**
+   * Establece la cache de resultados de las conexiones que se abran; la
+   * comparten todas, así los cambios de la conexión de escritura invalidan
+   * lo leído por las de lectura.
+   *
+   * @param queryCache cache, null para no usarla
+   */
+  public synchronized void setQueryCache(QueryCache queryCache) {
+    mQueryCache = queryCache;
+  }
+
+  public synchronized QueryCache getQueryCache() {
+    return mQueryCache;
+  }
+
+  /**
+   * Activa el pool de conexiones: una conexión de escritura y
+   * <code>readerCount</code> conexiones de solo lectura, en modo WAL.
+   *
+   * Con el pool activo cada llamada a {@link #getWritableDatabase()} o
+   * {@link #getReadableDatabase()} presta una conexión que se devuelve al
+   * pool con {@link SQLiteDatabase#close()}. Debe llamarse antes de abrir
+   * la base de datos.
+   *
+   * Las consultas van a las conexiones de lectura solo si se ejecutan en una
+   * base de datos obtenida con {@link #getReadableDatabase()} o
+   * {@link #getDatabase(String)}; lo que se ejecuta en la conexión de
+   * escritura se queda en ella.
+   *
+   * El pool necesita WAL para que las lecturas no bloqueen al escritor, así
+   * que no admite perfiles de PRAGMAs con otro journal_mode.
+   *
+   * @param readerCount número de conexiones de solo lectura
+   * @param timeoutMillis tiempo máximo de espera por una conexión libre
+   * @throws IllegalStateException si la base de datos ya está abierta o el
+   * perfil de PRAGMAs no usa WAL
+   */
+  public synchronized void enableConnectionPool(int readerCount, long timeoutMillis) {
+    if (readerCount < 1) {
+      throw new IllegalArgumentException("readerCount < 1");
+    }
+    if (mDatabase != null || mPool != null) {
+      throw new IllegalStateException("Database is already open");
+    }
+    checkPoolProfile(mPragmaProfile, readerCount);
+    mPoolReaderCount = readerCount;
+    mPoolTimeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Activa la cola de escrituras con group commit.
+   *
+   * @param capacity número máximo de escrituras pendientes
+   * @param maxBatchSize número máximo de escrituras por transacción
+   * @param maxBatchDelayMillis tiempo que se espera por más escrituras antes
+   * de confirmar un lote incompleto
+   * @see #getWriteQueue()
+   */
+  public synchronized void enableWriteQueue(int capacity, int maxBatchSize,
+          long maxBatchDelayMillis) {
+    if (mWriteQueue != null) {
+      throw new IllegalStateException("WriteQueue is already running");
+    }
+    mWriteQueueCapacity = capacity;
+    mWriteQueueBatchSize = maxBatchSize;
+    mWriteQueueDelayMillis = maxBatchDelayMillis;
+  }
+
+  /**
+   * Obtiene la cola de escrituras; el hilo escritor se inicia con la primera
+   * llamada. Conviene usarla junto con el pool de conexiones para que el
+   * hilo escritor tenga la conexión de escritura solo durante cada lote.
+   *
+   * @throws IllegalStateException si no se llamó a {@link #enableWriteQueue}
+   */
+  public synchronized WriteQueue getWriteQueue() {
+    if (mWriteQueue == null) {
+      if (mWriteQueueCapacity == 0) {
+        throw new IllegalStateException("WriteQueue is not enabled");
+      }
+      mWriteQueue = new WriteQueue(this, mWriteQueueCapacity,
+              mWriteQueueBatchSize, mWriteQueueDelayMillis);
+    }
+    return mWriteQueue;
+  }
+
+  /**
+   * Activa las operaciones asíncronas.
+   *
+   * Sin el pool de conexiones todas las operaciones comparten una sola
+   * conexión, por eso el ejecutor usa un solo hilo aunque se pidan más.
+   *
+   * @param threads número de hilos; conviene que coincida con el número de
+   * conexiones del pool
+   * @param queueCapacity número máximo de operaciones en espera
+   * @see #getAsyncDatabase()
+   */
+  public synchronized void enableAsync(int threads, int queueCapacity) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads < 1");
+    }
+    if (mAsyncDatabase != null) {
+      throw new IllegalStateException("AsyncDatabase is already running");
+    }
+    mAsyncThreads = threads;
+    mAsyncQueueCapacity = queueCapacity;
+  }
+
+  /**
+   * Obtiene la versión asíncrona de la base de datos; el ejecutor se crea
+   * con la primera llamada.
+   *
+   * @throws IllegalStateException si no se llamó a {@link #enableAsync}
+   */
+  public synchronized AsyncDatabase getAsyncDatabase() {
+    if (mAsyncDatabase == null) {
+      if (mAsyncThreads == 0) {
+        throw new IllegalStateException("AsyncDatabase is not enabled");
+      }
+      int threads = mAsyncThreads;
+      if (mPoolReaderCount == 0 && threads > 1) {
+        Log.i(TAG, "Connection pool is not enabled, AsyncDatabase uses 1 thread");
+        threads = 1;
+      }
+      mAsyncDatabase = new AsyncDatabase(this, threads, mAsyncQueueCapacity);
+    }
+    return mAsyncDatabase;
+  }
+
+  /**
+   * Copia en línea la base de datos a <code>destination</code> sin detener a
+   * los escritores; en modo WAL la copia es una instantánea consistente.
+   *
+   * Si el driver no copia por pasos ({@link OnlineBackup#isThrottlingSupported()})
+   * solo se admiten los valores por defecto: <code>pagesPerStep</code> igual
+   * a {@link OnlineBackup#DEFAULT_PAGES_PER_STEP}, sin pausa y sin listener.
+   *
+   * @param pagesPerStep páginas que se copian entre pausas
+   * @param sleepMillis pausa entre pasos, 0 para copiar sin pausas
+   * @param listener recibe el avance, o null
+   * @throws IllegalStateException si el driver no copia por pasos y se piden
+   * pasos, pausas o avance, o si no puede copiar la base de datos sin WAL
+   * @see OnlineBackup
+   */
+  public OnlineBackup.Result backupTo(File destination, int pagesPerStep,
+          long sleepMillis, OnlineBackup.ProgressListener listener) throws SQLException {
+    final SQLiteDatabase db = getReadableDatabase();
+    try {
+      final OnlineBackup backup = db.backup();
+      if (pagesPerStep != OnlineBackup.DEFAULT_PAGES_PER_STEP) {
+        backup.pagesPerStep(pagesPerStep);
+      }
+      if (sleepMillis != 0) backup.sleepMillis(sleepMillis);
+      return backup.listener(listener).backupTo(destination);
+    } finally {
+      // Con el pool la conexión regresa al pool.
+      if (db.pool != null) db.close();
+    }
+  }
+
+  /**
+   * Reemplaza el contenido de la base de datos con una copia, por la
+   * conexión de escritura.
+   *
+   * @param listener recibe el avance, o null
+   * @see OnlineBackup#restoreFrom(File)
+   */
+  public OnlineBackup.Result restoreFrom(File source,
+          OnlineBackup.ProgressListener listener) throws SQLException {
+    final SQLiteDatabase db = getWritableDatabase();
+    try {
+      return db.backup().listener(listener).restoreFrom(source);
+    } finally {
+      if (db.pool != null) db.close();
+    }
+  }
+
   public SQLiteDatabase getWritableDatabase() throws SQLException {
+    final SQLiteConnectionPool pool;
     synchronized (this) {
-      return getDatabaseLocked(Boolean.TRUE);
+      if (mPoolReaderCount == 0) {
+        return getDatabaseLocked(Boolean.TRUE);
+      }
+      pool = getPoolLocked();
     }
+    return pool.acquire(Boolean.TRUE);
   }
 
   public SQLiteDatabase getReadableDatabase() throws SQLException {
+    final SQLiteConnectionPool pool;
     synchronized (this) {
-      return getDatabaseLocked(Boolean.FALSE);
+      if (mPoolReaderCount == 0) {
+        return getDatabaseLocked(Boolean.FALSE);
+      }
+      pool = getPoolLocked();
     }
+    return pool.acquire(Boolean.FALSE);
+  }
+
+  /**
+   * Obtiene la base de datos adecuada para ejecutar la sentencia: las
+   * consultas SELECT van a una conexión de lectura y el resto a la de
+   * escritura.
+   *
+   * @param sql sentencia que se va a ejecutar
+   * @return la base de datos
+   * @throws SQLException
+   */
+  public SQLiteDatabase getDatabase(String sql) throws SQLException {
+    return SQLiteDatabase.startsWithKeyword(sql, "SELECT")
+            ? getReadableDatabase() : getWritableDatabase();
+  }
+
+  private static void checkPoolProfile(PragmaProfile profile, int readerCount) {
+    if (readerCount > 0 && profile != null && !profile.isWal()) {
+      throw new IllegalStateException("Connection pool requires a WAL profile: "
+              + profile);
+    }
+  }
+
+  private SQLiteConnectionPool getPoolLocked() throws SQLException {
+    if (mPool != null) return mPool;
+
+    // La conexión de escritura crea o actualiza la base de datos.
+    SQLiteDatabase writer = getDatabaseLocked(Boolean.TRUE);
+    mDatabase = null;
+    List<SQLiteDatabase> readers = new ArrayList<SQLiteDatabase>(mPoolReaderCount);
+    try {
+      writer.execSQL("PRAGMA journal_mode = WAL");
+      final File path = getDatabasePath(mName);
+      for (int i = 0; i < mPoolReaderCount; i++) {
+        SQLiteDatabase reader = openOrCreateDatabase(path, Boolean.FALSE);
+        readers.add(reader);
+        onConfigure(reader);
+        onOpen(reader);
+      }
+    } catch (SQLException e) {
+      for (SQLiteDatabase reader : readers) {
+        reader.close();
+      }
+      writer.close();
+      throw e;
+    }
+    mPool = new SQLiteConnectionPool(writer, readers, mPoolTimeoutMillis);
+    Log.i(TAG, "Opened " + mName + " with " + mPoolReaderCount + " readers");
+    return mPool;
   }
 
   /**
@@ -93,24 +413,23 @@ public abstract class SQLiteOpenHelper {
                   + version + " to " + mNewVersion + ": " + mName);
         }
         
-        db.beginTransaction();
-        try {
-          if (version == 0) {
-            onCreate(db);
-          } else {
-            if (version > mNewVersion) {
-              onDowngrade(db, version, mNewVersion);
+        // Si la migración falla se revierte y la excepción llega a quien
+        // abrió la base de datos.
+        db.runInTransaction(TransactionMode.EXCLUSIVE, new TransactionWork<Void>() {
+          @Override public Void execute(SQLiteDatabase db) throws SQLException {
+            if (version == 0) {
+              onCreate(db);
             } else {
-              onUpgrade(db, version, mNewVersion);
+              if (version > mNewVersion) {
+                onDowngrade(db, version, mNewVersion);
+              } else {
+                onUpgrade(db, version, mNewVersion);
+              }
             }
+            db.setVersion(db, mNewVersion);
+            return null;
           }
-          db.setVersion(db, mNewVersion);
-          db.setTransactionSuccessful();
-        } catch (SQLException e) {
-          db.rollback();
-        } finally {
-          db.endTransaction();
-        }
+        });
       }
 
       onOpen(db);
@@ -147,9 +466,16 @@ public abstract class SQLiteOpenHelper {
     }
     
     SQLiteConfig config = new SQLiteConfig();
+    if (mPragmaProfile != null) {
+      mPragmaProfile.applyTo(config, writable);
+    }
     config.setReadOnly(!writable);
     Connection conn = config.createConnection("jdbc:sqlite:" + path.getPath());
     SQLiteDatabase db = new SQLiteDatabase(conn);
+    db.setMetrics(mMetrics);
+    db.setSlowQueryLog(mSlowQueryLog);
+    db.setRetryPolicy(mRetryPolicy);
+    db.setQueryCache(mQueryCache);
     
     return db;
   }
@@ -157,10 +483,30 @@ public abstract class SQLiteOpenHelper {
   /**
    * Close any open database object.
    */
-  public synchronized void close() {
+  public void close() {
+    final WriteQueue writeQueue;
+    final AsyncDatabase asyncDatabase;
+    synchronized (this) {
+      writeQueue = mWriteQueue;
+      mWriteQueue = null;
+      asyncDatabase = mAsyncDatabase;
+      mAsyncDatabase = null;
+    }
+    // Fuera del bloqueo: los hilos necesitan el helper para terminar.
+    if (asyncDatabase != null) asyncDatabase.close();
+    if (writeQueue != null) writeQueue.close();
+    closeLocked();
+  }
+
+  private synchronized void closeLocked() {
     try {
       if (mIsInitializing) throw new IllegalStateException("Closed during initialization");
 
+      if (mPool != null) {
+        mPool.close();
+        mPool = null;
+      }
+
       if (mDatabase != null && !mDatabase.isClosed()) {
         mDatabase.close();
         mDatabase = null;
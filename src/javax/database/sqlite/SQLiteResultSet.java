@@ -27,16 +27,50 @@ class SQLiteResultSet implements ResultSet {
   final ResultSet delegate;
   final Statement statement;
 
+  /**
+   * Base de datos donde se registra la duración y el número de filas del
+   * query al cerrar el cursor, null si no se registra.
+   */
+  private SQLiteDatabase recorder;
+  private String sql;
+  private Object[] bindArgs;
+  private long start;
+  private long rowCount;
+
+  /**
+   * Nombres de las columnas en una tabla hash que no distingue mayúsculas,
+   * se arma una sola vez con los metadatos.
+   */
+  private String[] labelTable;
+  /** Índice, desde 1, de la columna de cada nombre de labelTable. */
+  private int[] indexTable;
+
   SQLiteResultSet(ResultSet delegate, Statement statement) {
     this.delegate = delegate;
     this.statement = statement;
   }
 
+  /** Registra el query al cerrar el cursor, con el tiempo de leer sus filas. */
+  void recordOnClose(SQLiteDatabase db, String sql, Object[] bindArgs,
+          long start) {
+    this.recorder = db;
+    this.sql = sql;
+    this.bindArgs = bindArgs;
+    this.start = start;
+  }
+
   @Override public boolean next() throws SQLException {
-    return delegate.next();
+    boolean next = delegate.next();
+    if (next) rowCount++;
+    return next;
   }
 
   @Override public void close() {
+    final SQLiteDatabase db = recorder;
+    if (db != null) {
+      recorder = null;
+      db.record(sql, bindArgs, rowCount, start);
+    }
     SQLiteDatabase.closeQuietly(delegate);
     SQLiteDatabase.closeQuietly(statement);
   }
@@ -110,67 +144,67 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public String getString(String columnLabel) throws SQLException {
-    return delegate.getString(columnLabel);
+    return getString(findColumn(columnLabel));
   }
 
   @Override public boolean getBoolean(String columnLabel) throws SQLException {
-    return delegate.getBoolean(columnLabel);
+    return getBoolean(findColumn(columnLabel));
   }
 
   @Override public byte getByte(String columnLabel) throws SQLException {
-    return delegate.getByte(columnLabel);
+    return getByte(findColumn(columnLabel));
   }
 
   @Override public short getShort(String columnLabel) throws SQLException {
-    return delegate.getShort(columnLabel);
+    return getShort(findColumn(columnLabel));
   }
 
   @Override public int getInt(String columnLabel) throws SQLException {
-    return delegate.getInt(columnLabel);
+    return getInt(findColumn(columnLabel));
   }
 
   @Override public long getLong(String columnLabel) throws SQLException {
-    return delegate.getLong(columnLabel);
+    return getLong(findColumn(columnLabel));
   }
 
   @Override public float getFloat(String columnLabel) throws SQLException {
-    return delegate.getFloat(columnLabel);
+    return getFloat(findColumn(columnLabel));
   }
 
   @Override public double getDouble(String columnLabel) throws SQLException {
-    return delegate.getDouble(columnLabel);
+    return getDouble(findColumn(columnLabel));
   }
 
   @Override public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException {
-    return delegate.getBigDecimal(columnLabel, scale);
+    return getBigDecimal(findColumn(columnLabel), scale);
   }
 
   @Override public byte[] getBytes(String columnLabel) throws SQLException {
-    return delegate.getBytes(columnLabel);
+    return getBytes(findColumn(columnLabel));
   }
 
   @Override public Date getDate(String columnLabel) throws SQLException {
-    return delegate.getDate(columnLabel);
+    return getDate(findColumn(columnLabel));
   }
 
   @Override public Time getTime(String columnLabel) throws SQLException {
-    return delegate.getTime(columnLabel);
+    return getTime(findColumn(columnLabel));
   }
 
   @Override public Timestamp getTimestamp(String columnLabel) throws SQLException {
-    return delegate.getTimestamp(columnLabel);
+    return getTimestamp(findColumn(columnLabel));
   }
 
   @Override public InputStream getAsciiStream(String columnLabel) throws SQLException {
-    return delegate.getAsciiStream(columnLabel);
+    return getAsciiStream(findColumn(columnLabel));
   }
 
   @Override public InputStream getUnicodeStream(String columnLabel) throws SQLException {
-    return delegate.getUnicodeStream(columnLabel);
+    return getUnicodeStream(findColumn(columnLabel));
   }
 
   @Override public InputStream getBinaryStream(String columnLabel) throws SQLException {
-    return delegate.getBinaryStream(columnLabel);
+    return getBinaryStream(findColumn(columnLabel));
   }
 
   @Override public SQLWarning getWarnings() throws SQLException {
@@ -194,11 +228,57 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public Object getObject(String columnLabel) throws SQLException {
-    return delegate.getObject(columnLabel);
+    return getObject(findColumn(columnLabel));
   }
 
+  /**
+   * Resuelve el índice de una columna igual que el driver: la primera
+   * columna cuyo nombre coincide sin distinguir mayúsculas. El resultado se
+   * guarda para no recorrer las columnas en cada fila.
+   */
   @Override public int findColumn(String columnLabel) throws SQLException {
-    return delegate.findColumn(columnLabel);
+    if (labelTable == null) buildLabelTable();
+    final int mask = labelTable.length - 1;
+    for (int i = hashIgnoreCase(columnLabel) & mask; labelTable[i] != null;
+            i = (i + 1) & mask) {
+      if (columnLabel.equalsIgnoreCase(labelTable[i])) return indexTable[i];
+    }
+    throw new SQLException("no such column: '" + columnLabel + "'");
+  }
+
+  /**
+   * Arma la tabla de nombres; como en el driver, un nombre repetido resuelve
+   * a la primera columna que lo tiene.
+   */
+  private void buildLabelTable() throws SQLException {
+    ResultSetMetaData metaData = getMetaData();
+    int count = metaData.getColumnCount();
+    int size = 2;
+    while (size < count * 2) size <<= 1;
+    String[] labels = new String[size];
+    int[] indexes = new int[size];
+    for (int column = 1; column <= count; column++) {
+      String label = metaData.getColumnLabel(column);
+      if (label == null) continue;
+      int i = hashIgnoreCase(label) & (size - 1);
+      while (labels[i] != null && !label.equalsIgnoreCase(labels[i])) {
+        i = (i + 1) & (size - 1);
+      }
+      if (labels[i] != null) continue;
+      labels[i] = label;
+      indexes[i] = column;
+    }
+    indexTable = indexes;
+    labelTable = labels;
+  }
+
+  /** Hash compatible con equalsIgnoreCase. */
+  private static int hashIgnoreCase(String s) {
+    int h = 0;
+    for (int i = 0; i < s.length(); i++) {
+      h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+    }
+    return h ^ (h >>> 16);
   }
 
   @Override public Reader getCharacterStream(int columnIndex) throws SQLException {
@@ -206,7 +286,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public Reader getCharacterStream(String columnLabel) throws SQLException {
-    return delegate.getCharacterStream(columnLabel);
+    return getCharacterStream(findColumn(columnLabel));
   }
 
   @Override public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
@@ -214,7 +294,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
-    return delegate.getBigDecimal(columnLabel);
+    return getBigDecimal(findColumn(columnLabel));
   }
 
   @Override public boolean isBeforeFirst() throws SQLException {
@@ -482,7 +562,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public Statement getStatement() throws SQLException {
-    return delegate.getStatement();
+    return statement != null ? statement : delegate.getStatement();
   }
 
   @Override public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException {
@@ -506,23 +586,23 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException {
-    return delegate.getObject(columnLabel, map);
+    return getObject(findColumn(columnLabel), map);
   }
 
   @Override public Ref getRef(String columnLabel) throws SQLException {
-    return delegate.getRef(columnLabel);
+    return getRef(findColumn(columnLabel));
   }
 
   @Override public Blob getBlob(String columnLabel) throws SQLException {
-    return delegate.getBlob(columnLabel);
+    return getBlob(findColumn(columnLabel));
   }
 
   @Override public Clob getClob(String columnLabel) throws SQLException {
-    return delegate.getClob(columnLabel);
+    return getClob(findColumn(columnLabel));
   }
 
   @Override public Array getArray(String columnLabel) throws SQLException {
-    return delegate.getArray(columnLabel);
+    return getArray(findColumn(columnLabel));
   }
 
   @Override public Date getDate(int columnIndex, Calendar cal) throws SQLException {
@@ -530,7 +610,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public Date getDate(String columnLabel, Calendar cal) throws SQLException {
-    return delegate.getDate(columnLabel, cal);
+    return getDate(findColumn(columnLabel), cal);
   }
 
   @Override public Time getTime(int columnIndex, Calendar cal) throws SQLException {
@@ -538,7 +618,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public Time getTime(String columnLabel, Calendar cal) throws SQLException {
-    return delegate.getTime(columnLabel, cal);
+    return getTime(findColumn(columnLabel), cal);
   }
 
   @Override public Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException {
@@ -546,7 +626,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public Timestamp getTimestamp(String columnLabel, Calendar cal) throws SQLException {
-    return delegate.getTimestamp(columnLabel, cal);
+    return getTimestamp(findColumn(columnLabel), cal);
   }
 
   @Override public URL getURL(int columnIndex) throws SQLException {
@@ -554,7 +634,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public URL getURL(String columnLabel) throws SQLException {
-    return delegate.getURL(columnLabel);
+    return getURL(findColumn(columnLabel));
   }
 
   @Override public void updateRef(int columnIndex, Ref x) throws SQLException {
@@ -594,7 +674,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public RowId getRowId(String columnLabel) throws SQLException {
-    return delegate.getRowId(columnLabel);
+    return getRowId(findColumn(columnLabel));
   }
 
   @Override public void updateRowId(int columnIndex, RowId x) throws SQLException {
@@ -634,7 +714,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public NClob getNClob(String columnLabel) throws SQLException {
-    return delegate.getNClob(columnLabel);
+    return getNClob(findColumn(columnLabel));
   }
 
   @Override public SQLXML getSQLXML(int columnIndex) throws SQLException {
@@ -642,7 +722,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public SQLXML getSQLXML(String columnLabel) throws SQLException {
-    return delegate.getSQLXML(columnLabel);
+    return getSQLXML(findColumn(columnLabel));
   }
 
   @Override public void updateSQLXML(int columnIndex, SQLXML xmlObject) throws SQLException {
@@ -658,7 +738,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public String getNString(String columnLabel) throws SQLException {
-    return delegate.getNString(columnLabel);
+    return getNString(findColumn(columnLabel));
   }
 
   @Override public Reader getNCharacterStream(int columnIndex) throws SQLException {
@@ -666,7 +746,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public Reader getNCharacterStream(String columnLabel) throws SQLException {
-    return delegate.getNCharacterStream(columnLabel);
+    return getNCharacterStream(findColumn(columnLabel));
   }
 
   @Override public void updateNCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
@@ -786,7 +866,7 @@ class SQLiteResultSet implements ResultSet {
   }
 
   @Override public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
-    return delegate.getObject(columnLabel, type);
+    return getObject(findColumn(columnLabel), type);
   }
 
   @Override public <T> T unwrap(Class<T> iface) throws SQLException {
@@ -0,0 +1,288 @@
+package javax.database.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Registro de sentencias lentas.
+ *
+ * Cuando una sentencia tarda más que el umbral se guarda con sus valores,
+ * su duración y la salida de <code>EXPLAIN QUERY PLAN</code>. El plan se
+ * obtiene en un hilo en segundo plano con una conexión aparte, para no
+ * retrasar ni interferir con la original; en las bases de datos en memoria
+ * se obtiene en la misma conexión. La duración de un query incluye la
+ * lectura de sus filas hasta cerrar el cursor. Las sentencias se agrupan por
+ * su forma normalizada y cada forma se registra como máximo una vez por
+ * intervalo; las repeticiones solo se cuentan.
+ *
+ * <pre>
+ * db.setSlowQueryLog(new SlowQueryLog(200, TimeUnit.MILLISECONDS));
+ * </pre>
+ */
+public class SlowQueryLog implements AutoCloseable {
+  private static final String TAG = "SlowQueryLog";
+
+  /** Intervalo mínimo por defecto entre dos registros de la misma forma. */
+  public static final long DEFAULT_INTERVAL_MILLIS = 60000;
+
+  /** Planes pendientes; si hay más, los nuevos se omiten. */
+  private static final int MAX_PENDING_PLANS = 64;
+
+  private final long thresholdNanos;
+  private final long intervalNanos;
+  private final ConcurrentMap<String, Entry> entries =
+          new ConcurrentHashMap<String, Entry>();
+  /** Conexiones para los planes, solo las usa el hilo de los planes. */
+  private final Map<String, Connection> sideConnections =
+          new HashMap<String, Connection>();
+  private final ThreadPoolExecutor explainer;
+  private boolean closed;
+
+  public SlowQueryLog(long threshold, TimeUnit unit) {
+    this(threshold, unit, DEFAULT_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param threshold duración a partir de la cual una sentencia es lenta
+   * @param unit unidad de <code>threshold</code>
+   * @param intervalMillis intervalo mínimo entre dos registros de la misma
+   * forma de sentencia
+   */
+  public SlowQueryLog(long threshold, TimeUnit unit, long intervalMillis) {
+    this.thresholdNanos = unit.toNanos(threshold);
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.explainer = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_PENDING_PLANS),
+            new ThreadFactory() {
+      @Override public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, TAG);
+        thread.setDaemon(true);
+        return thread;
+      }
+    }, new ThreadPoolExecutor.DiscardPolicy());
+    this.explainer.allowCoreThreadTimeOut(true);
+  }
+
+  public long getThresholdNanos() {
+    return thresholdNanos;
+  }
+
+  /**
+   * Registra una sentencia si superó el umbral.
+   *
+   * @param db base de datos donde se ejecutó
+   * @param sql texto sql
+   * @param bindArgs valores de la sentencia
+   * @param nanos duración en nanosegundos
+   */
+  void check(SQLiteDatabase db, String sql, Object[] bindArgs, long nanos) {
+    if (nanos < thresholdNanos) return;
+    String shape = SQLiteMetrics.normalize(sql);
+    Entry entry = entries.get(shape);
+    if (entry == null) {
+      Entry created = new Entry(shape);
+      entry = entries.putIfAbsent(shape, created);
+      if (entry == null) entry = created;
+    }
+    if (!entry.occurred(sql, bindArgs, nanos, intervalNanos)) return;
+
+    final String url;
+    try {
+      url = db.connection().getMetaData().getURL();
+    } catch (SQLException e) {
+      report(entry, sql, bindArgs, nanos, "EXPLAIN failed: " + e.getMessage());
+      return;
+    }
+    if (isMemory(url)) {
+      // No se puede abrir otra conexión a la misma base de datos.
+      report(entry, sql, bindArgs, nanos, explain(db.connection(), sql, bindArgs));
+      return;
+    }
+    final Entry target = entry;
+    final String slowSql = sql;
+    final Object[] args = (bindArgs == null) ? null : bindArgs.clone();
+    final long slowNanos = nanos;
+    explainer.execute(new Runnable() {
+      @Override public void run() {
+        String plan;
+        try {
+          plan = explain(sideConnection(url), slowSql, args);
+        } catch (SQLException e) {
+          plan = "EXPLAIN failed: " + e.getMessage();
+        }
+        report(target, slowSql, args, slowNanos, plan);
+      }
+    });
+  }
+
+  private static void report(Entry entry, String sql, Object[] bindArgs,
+          long nanos, String plan) {
+    entry.plan = plan;
+    if (Log.isDebuggable()) {
+      Log.e(TAG, TimeUnit.NANOSECONDS.toMillis(nanos) + " ms " + sql + " "
+              + Arrays.toString(bindArgs) + "\n" + plan);
+    }
+  }
+
+  /** Obtiene el plan de la sentencia. */
+  private static String explain(Connection conn, String sql, Object[] bindArgs) {
+    try {
+      try (PreparedStatement ps = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+        if (bindArgs != null) {
+          for (int i = 0; i < bindArgs.length; i++) {
+            ps.setObject(i + 1, bindArgs[i]);
+          }
+        }
+        StringBuilder plan = new StringBuilder();
+        try (ResultSet rs = ps.executeQuery()) {
+          int detail = rs.getMetaData().getColumnCount();
+          while (rs.next()) {
+            if (plan.length() > 0) plan.append('\n');
+            plan.append(rs.getString(detail));
+          }
+        }
+        return plan.toString();
+      }
+    } catch (SQLException e) {
+      return "EXPLAIN failed: " + e.getMessage();
+    }
+  }
+
+  private static boolean isMemory(String url) {
+    return url == null || url.endsWith(":memory:") || url.equals("jdbc:sqlite:")
+            || url.contains("mode=memory");
+  }
+
+  /** Conexión de solo lectura al mismo archivo. */
+  private synchronized Connection sideConnection(String url) throws SQLException {
+    if (closed) throw new SQLException("SlowQueryLog is closed");
+    Connection conn = sideConnections.get(url);
+    if (conn == null || conn.isClosed()) {
+      SQLiteConfig config = new SQLiteConfig();
+      config.setReadOnly(true);
+      // Si la base de datos está bloqueada se omite el plan en vez de esperar.
+      config.setBusyTimeout(0);
+      conn = config.createConnection(url);
+      sideConnections.put(url, conn);
+    }
+    return conn;
+  }
+
+  /** Sentencias lentas registradas, de la más lenta a la más rápida. */
+  public List<Entry> getEntries() {
+    List<Entry> list = new ArrayList<Entry>(entries.values());
+    Collections.sort(list, new Comparator<Entry>() {
+      @Override public int compare(Entry a, Entry b) {
+        return Long.compare(b.getMaxNanos(), a.getMaxNanos());
+      }
+    });
+    return list;
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  /** Detiene el hilo de los planes y cierra sus conexiones. */
+  @Override public void close() {
+    explainer.shutdownNow();
+    synchronized (this) {
+      closed = true;
+      for (Connection conn : sideConnections.values()) {
+        SQLiteDatabase.closeQuietly(conn);
+      }
+      sideConnections.clear();
+    }
+  }
+
+  /** Una forma de sentencia lenta. */
+  public static final class Entry {
+    private final String shape;
+    private final AtomicLong count = new AtomicLong();
+    private volatile long maxNanos;
+    private volatile long lastNanos;
+    private volatile String lastSql;
+    private volatile Object[] lastBindArgs;
+    private volatile String plan;
+    private long lastCaptured;
+    private boolean captured;
+
+    Entry(String shape) {
+      this.shape = shape;
+    }
+
+    /**
+     * Cuenta una ocurrencia.
+     *
+     * @return true si toca registrarla, false si se registró hace menos del
+     * intervalo
+     */
+    synchronized boolean occurred(String sql, Object[] bindArgs, long nanos,
+            long intervalNanos) {
+      count.incrementAndGet();
+      lastNanos = nanos;
+      if (nanos > maxNanos) maxNanos = nanos;
+      long now = System.nanoTime();
+      if (captured && now - lastCaptured < intervalNanos) return false;
+      captured = true;
+      lastCaptured = now;
+      lastSql = sql;
+      lastBindArgs = (bindArgs == null) ? null : bindArgs.clone();
+      return true;
+    }
+
+    /** Sentencia normalizada. */
+    public String getShape() {
+      return shape;
+    }
+
+    /** Número de veces que la sentencia superó el umbral. */
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getMaxNanos() {
+      return maxNanos;
+    }
+
+    public long getLastNanos() {
+      return lastNanos;
+    }
+
+    /** Última sentencia registrada, con sus valores literales. */
+    public String getLastSql() {
+      return lastSql;
+    }
+
+    public Object[] getLastBindArgs() {
+      return lastBindArgs;
+    }
+
+    /** Salida de <code>EXPLAIN QUERY PLAN</code>, una línea por paso. */
+    public String getPlan() {
+      return plan;
+    }
+
+    @Override public String toString() {
+      return shape + " count=" + count + " max="
+              + TimeUnit.NANOSECONDS.toMillis(maxNanos) + "ms\n" + plan;
+    }
+  }
+}
@@ -0,0 +1,298 @@
+package javax.database.sqlite;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache de las sentencias INSERT y UPDATE que se arman a partir de un mapa
+ * de valores.
+ *
+ * Las columnas se ordenan alfabéticamente, así el mismo conjunto de columnas
+ * produce siempre el mismo texto sql sin importar el orden de iteración del
+ * mapa, y la sentencia preparada se reutiliza desde {@link StatementCache}.
+ * La cache es compartida por todas las conexiones porque el texto no depende
+ * de la conexión; se lee sin candados y se vacía al llenarse. Un
+ * {@link ContentValues} que repite sus columnas guarda su última plantilla y
+ * no vuelve a buscarla.
+ */
+final class SqlTemplates {
+
+  /** Número máximo de plantillas en la cache. */
+  static final int MAX_SIZE = 256;
+
+  private static final char INSERT = 'I';
+  private static final char UPDATE = 'U';
+
+  private static final ConcurrentHashMap<Key, Template> TEMPLATES =
+          new ConcurrentHashMap<Key, Template>(64);
+
+  private SqlTemplates() {
+  }
+
+  /**
+   * Plantilla de un insert.
+   *
+   * @param conflictAlgorithm OR ROLLBACK, OR ABORT, OR FAIL, OR IGNORE,
+   * OR REPLACE; null o vacío para ninguno
+   * @param columns columnas a insertar
+   * @param conflictTarget columnas de la restricción para
+   * <code>ON CONFLICT(..) DO UPDATE</code>, o null para un insert simple
+   */
+  static Template insert(String table, String conflictAlgorithm,
+          Collection<String> columns, String[] conflictTarget) {
+    return insert(table, conflictAlgorithm, sorted(columns), conflictTarget);
+  }
+
+  /**
+   * @param sortedColumns columnas ordenadas alfabéticamente; el arreglo se
+   * guarda en la cache y no se debe modificar
+   */
+  static Template insert(String table, String conflictAlgorithm,
+          String[] sortedColumns, String[] conflictTarget) {
+    return get(new Key(INSERT, table, conflictAlgorithm, sortedColumns,
+            (conflictTarget == null) ? null : conflictTarget.clone(), null));
+  }
+
+  /** Plantilla de un insert con las columnas de <code>values</code>. */
+  static Template insert(String table, String conflictAlgorithm,
+          ContentValues values) {
+    final String[] columns = values.sortedKeys();
+    Template template = values.template;
+    if (template == null || values.templateKeys != columns
+            || !template.key.matches(INSERT, table, conflictAlgorithm, null)) {
+      template = insert(table, conflictAlgorithm, columns, null);
+      values.template = template;
+      values.templateKeys = columns;
+    }
+    return template;
+  }
+
+  /**
+   * Plantilla de un update.
+   *
+   * @param conflictAlgorithm OR ROLLBACK, OR ABORT, OR FAIL, OR IGNORE,
+   * OR REPLACE; null o vacío para ninguno
+   * @param columns columnas a actualizar
+   * @param whereClause cláusula WHERE, null para actualizar todas las filas
+   */
+  static Template update(String table, String conflictAlgorithm,
+          Collection<String> columns, String whereClause) {
+    return update(table, conflictAlgorithm, sorted(columns), whereClause);
+  }
+
+  /**
+   * @param sortedColumns columnas ordenadas alfabéticamente; el arreglo se
+   * guarda en la cache y no se debe modificar
+   */
+  static Template update(String table, String conflictAlgorithm,
+          String[] sortedColumns, String whereClause) {
+    return get(new Key(UPDATE, table, conflictAlgorithm, sortedColumns, null,
+            whereClause));
+  }
+
+  /** Plantilla de un update con las columnas de <code>values</code>. */
+  static Template update(String table, String conflictAlgorithm,
+          ContentValues values, String whereClause) {
+    final String[] columns = values.sortedKeys();
+    Template template = values.template;
+    if (template == null || values.templateKeys != columns
+            || !template.key.matches(UPDATE, table, conflictAlgorithm, whereClause)) {
+      template = update(table, conflictAlgorithm, columns, whereClause);
+      values.template = template;
+      values.templateKeys = columns;
+    }
+    return template;
+  }
+
+  /** Número de plantillas en la cache. */
+  static int size() {
+    return TEMPLATES.size();
+  }
+
+  private static Template get(Key key) {
+    Template template = TEMPLATES.get(key);
+    if (template != null) return template;
+    // Dos hilos pueden armar la misma plantilla; el resultado es idéntico.
+    template = new Template(key.kind == INSERT
+            ? buildInsertSql(key.table, key.conflictAlgorithm, key.columns,
+                    key.conflictTarget)
+            : buildUpdateSql(key.table, key.conflictAlgorithm, key.columns,
+                    key.whereClause),
+            key);
+    // Las plantillas se arman rápido: al llenarse la cache se empieza de nuevo.
+    if (TEMPLATES.size() >= MAX_SIZE) TEMPLATES.clear();
+    Template previous = TEMPLATES.putIfAbsent(key, template);
+    return (previous != null) ? previous : template;
+  }
+
+  private static String[] sorted(Collection<String> columns) {
+    String[] array = columns.toArray(new String[columns.size()]);
+    Arrays.sort(array);
+    return array;
+  }
+
+  /** Arma la sentencia insert con las columnas en el orden dado. */
+  static String buildInsertSql(String table, String conflictAlgorithm,
+          String[] columns, String[] conflictTarget) {
+    StringBuilder sql = new StringBuilder();
+    sql.append("INSERT ");
+    if (conflictAlgorithm != null && !conflictAlgorithm.isEmpty()) {
+      sql.append(conflictAlgorithm).append(' ');
+    }
+    sql.append("INTO ");
+    sql.append(table);
+    sql.append('(');
+    for (int i = 0; i < columns.length; i++) {
+      sql.append((i > 0) ? "," : "");
+      sql.append(columns[i]);
+    }
+    sql.append(')');
+    sql.append(" VALUES (");
+    for (int i = 0; i < columns.length; i++) {
+      sql.append((i > 0) ? ",?" : "?");
+    }
+    sql.append(')');
+    if (conflictTarget != null) {
+      appendUpsertClause(sql, columns, conflictTarget);
+    }
+    return sql.toString();
+  }
+
+  /**
+   * Agrega <code>ON CONFLICT(target) DO UPDATE SET c=excluded.c</code> para
+   * las columnas que no forman parte de la restricción, o
+   * <code>DO NOTHING</code> si todas forman parte de ella.
+   */
+  private static void appendUpsertClause(StringBuilder sql, String[] columns,
+          String[] conflictTarget) {
+    if (conflictTarget.length == 0) {
+      throw new IllegalArgumentException("conflictTarget is empty");
+    }
+    sql.append(" ON CONFLICT(");
+    for (int i = 0; i < conflictTarget.length; i++) {
+      sql.append((i > 0) ? "," : "");
+      sql.append(conflictTarget[i]);
+    }
+    sql.append(')');
+    int set = 0;
+    for (String column : columns) {
+      if (containsIgnoreCase(conflictTarget, column)) continue;
+      sql.append((set++ > 0) ? "," : " DO UPDATE SET ");
+      sql.append(column).append("=excluded.").append(column);
+    }
+    if (set == 0) sql.append(" DO NOTHING");
+  }
+
+  private static boolean containsIgnoreCase(String[] array, String value) {
+    for (String item : array) {
+      if (item.equalsIgnoreCase(value)) return true;
+    }
+    return false;
+  }
+
+  /** Arma la sentencia update con las columnas en el orden dado. */
+  static String buildUpdateSql(String table, String conflictAlgorithm,
+          String[] columns, String whereClause) {
+    StringBuilder sql = new StringBuilder();
+    sql.append("UPDATE ");
+    if (conflictAlgorithm != null && !conflictAlgorithm.isEmpty()) {
+      sql.append(conflictAlgorithm).append(' ');
+    }
+    sql.append(table);
+    sql.append(" SET ");
+    for (int i = 0; i < columns.length; i++) {
+      sql.append((i > 0) ? "," : "");
+      sql.append(columns[i]);
+      sql.append("=?");
+    }
+    if (whereClause != null && !whereClause.isEmpty()) {
+      sql.append(" WHERE ");
+      sql.append(whereClause);
+    }
+    return sql.toString();
+  }
+
+  /** Sentencia armada y el orden en que se enlazan sus columnas. */
+  static final class Template {
+    final String sql;
+    /** Columnas en el orden de los parámetros; no se debe modificar. */
+    final String[] columns;
+    final Key key;
+
+    Template(String sql, Key key) {
+      this.sql = sql;
+      this.columns = key.columns;
+      this.key = key;
+    }
+
+    /**
+     * Valores de las columnas en el orden de los parámetros, seguidos de
+     * <code>extraArgs</code>.
+     */
+    Object[] bindArgs(Map<String, Object> values, Object... extraArgs) {
+      int extra = (extraArgs == null) ? 0 : extraArgs.length;
+      Object[] args = new Object[columns.length + extra];
+      for (int i = 0; i < columns.length; i++) {
+        args[i] = values.get(columns[i]);
+      }
+      if (extra > 0) System.arraycopy(extraArgs, 0, args, columns.length, extra);
+      return args;
+    }
+  }
+
+  /** Llave de la cache; las cadenas null se guardan como vacías. */
+  private static final class Key {
+    final char kind;
+    final String table;
+    final String conflictAlgorithm;
+    final String[] columns;
+    final String[] conflictTarget;
+    final String whereClause;
+    final int hash;
+
+    Key(char kind, String table, String conflictAlgorithm, String[] columns,
+            String[] conflictTarget, String whereClause) {
+      this.kind = kind;
+      this.table = table;
+      this.conflictAlgorithm = (conflictAlgorithm == null) ? "" : conflictAlgorithm;
+      this.columns = columns;
+      this.conflictTarget = conflictTarget;
+      this.whereClause = (whereClause == null) ? "" : whereClause;
+      int h = kind;
+      h = 31 * h + table.hashCode();
+      h = 31 * h + this.conflictAlgorithm.hashCode();
+      h = 31 * h + Arrays.hashCode(columns);
+      h = 31 * h + Arrays.hashCode(conflictTarget);
+      h = 31 * h + this.whereClause.hashCode();
+      this.hash = h;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return hash == other.hash && kind == other.kind
+              && table.equals(other.table)
+              && conflictAlgorithm.equals(other.conflictAlgorithm)
+              && whereClause.equals(other.whereClause)
+              && Arrays.equals(columns, other.columns)
+              && Arrays.equals(conflictTarget, other.conflictTarget);
+    }
+
+    /** Compara todo salvo las columnas, para una plantilla sin upsert. */
+    boolean matches(char kind, String table, String conflictAlgorithm,
+            String whereClause) {
+      return this.kind == kind && conflictTarget == null
+              && this.table.equals(table)
+              && this.conflictAlgorithm.equals(
+                      (conflictAlgorithm == null) ? "" : conflictAlgorithm)
+              && this.whereClause.equals((whereClause == null) ? "" : whereClause);
+    }
+
+    @Override public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package javax.database.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache LRU de sentencias preparadas de una conexión.
+ *
+ * Las sentencias se prestan con {@link #acquire(String, boolean)} y vuelven a
+ * la cache al cerrarse, con su resultado cerrado y sus parámetros y opciones
+ * restaurados. Una sentencia prestada no
+ * está en la cache, así que dos hilos nunca comparten la misma.
+ */
+final class StatementCache {
+
+  /** Tamaño por defecto de la cache. */
+  static final int DEFAULT_SIZE = 25;
+  /** Tamaño máximo permitido para la cache. */
+  static final int MAX_SIZE = 100;
+
+  private final Connection conn;
+  private final LinkedHashMap<Key, SQLiteStatement> cache;
+  private int maxSize;
+  private int generation;
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+
+  StatementCache(Connection conn, int maxSize) {
+    this.conn = conn;
+    this.maxSize = maxSize;
+    this.cache = new LinkedHashMap<Key, SQLiteStatement>(16, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(
+              Map.Entry<Key, SQLiteStatement> eldest) {
+        if (size() > StatementCache.this.maxSize) {
+          SQLiteDatabase.closeQuietly(eldest.getValue().delegate);
+          evictionCount++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Obtiene una sentencia de la cache o prepara una nueva si no existe.
+   *
+   * @param sql instrucción a preparar
+   * @param generatedKeys si la sentencia debe devolver las llaves generadas
+   * @return la sentencia prestada, se devuelve a la cache al cerrarla
+   * @throws SQLException
+   */
+  SQLiteStatement acquire(String sql, boolean generatedKeys) throws SQLException {
+    final Key key = new Key(sql, generatedKeys);
+    final int gen;
+    synchronized (this) {
+      SQLiteStatement statement = cache.remove(key);
+      if (statement != null) {
+        hitCount++;
+        statement.closed = false;
+        statement.closeOnCompletion = false;
+        return statement;
+      }
+      missCount++;
+      gen = generation;
+    }
+    PreparedStatement ps = generatedKeys
+            ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+            : conn.prepareStatement(sql);
+    return new SQLiteStatement(ps, this, key, gen);
+  }
+
+  /**
+   * Regresa una sentencia a la cache, o la cierra si ya no cabe o no se pudo
+   * restaurar.
+   */
+  void release(SQLiteStatement statement) {
+    try {
+      statement.reset();
+    } catch (SQLException e) {
+      SQLiteDatabase.closeQuietly(statement.delegate);
+      return;
+    }
+    synchronized (this) {
+      if (maxSize > 0 && statement.generation == generation
+              && !cache.containsKey(statement.key)) {
+        cache.put(statement.key, statement);
+        return;
+      }
+    }
+    SQLiteDatabase.closeQuietly(statement.delegate);
+  }
+
+  /**
+   * Cierra todas las sentencias de la cache. Las sentencias prestadas en este
+   * momento se cierran cuando se devuelvan.
+   */
+  void clear() {
+    List<SQLiteStatement> evicted;
+    synchronized (this) {
+      generation++;
+      evicted = new ArrayList<SQLiteStatement>(cache.values());
+      cache.clear();
+    }
+    for (SQLiteStatement statement : evicted) {
+      SQLiteDatabase.closeQuietly(statement.delegate);
+    }
+  }
+
+  synchronized void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+    while (cache.size() > maxSize) {
+      Map.Entry<Key, SQLiteStatement> eldest = cache.entrySet().iterator().next();
+      cache.remove(eldest.getKey());
+      SQLiteDatabase.closeQuietly(eldest.getValue().delegate);
+      evictionCount++;
+    }
+  }
+
+  synchronized int size() {
+    return cache.size();
+  }
+
+  synchronized long hitCount() {
+    return hitCount;
+  }
+
+  synchronized long missCount() {
+    return missCount;
+  }
+
+  synchronized long evictionCount() {
+    return evictionCount;
+  }
+
+  /** Llave de la cache: texto sql y si devuelve las llaves generadas. */
+  static final class Key {
+    final String sql;
+    final boolean generatedKeys;
+
+    Key(String sql, boolean generatedKeys) {
+      this.sql = sql;
+      this.generatedKeys = generatedKeys;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return generatedKeys == other.generatedKeys && sql.equals(other.sql);
+    }
+
+    @Override public int hashCode() {
+      return 31 * sql.hashCode() + (generatedKeys ? 1 : 0);
+    }
+  }
+}
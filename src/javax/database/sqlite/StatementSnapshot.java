@@ -0,0 +1,82 @@
+package javax.database.sqlite;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Estadísticas de una sentencia en un momento dado. Los percentiles se
+ * estiman con un histograma con un error máximo del 25%.
+ */
+public final class StatementSnapshot {
+
+  private final String sql;
+  private final long count;
+  private final long errorCount;
+  private final long rows;
+  private final long totalMicros;
+  private final long p50Micros;
+  private final long p95Micros;
+  private final long p99Micros;
+  private final long maxMicros;
+
+  @ConstructorProperties({"sql", "count", "errorCount", "rows", "totalMicros",
+          "p50Micros", "p95Micros", "p99Micros", "maxMicros"})
+  public StatementSnapshot(String sql, long count, long errorCount, long rows,
+          long totalMicros, long p50Micros, long p95Micros, long p99Micros,
+          long maxMicros) {
+    this.sql = sql;
+    this.count = count;
+    this.errorCount = errorCount;
+    this.rows = rows;
+    this.totalMicros = totalMicros;
+    this.p50Micros = p50Micros;
+    this.p95Micros = p95Micros;
+    this.p99Micros = p99Micros;
+    this.maxMicros = maxMicros;
+  }
+
+  /** Sentencia normalizada, sin valores literales. */
+  public String getSql() {
+    return sql;
+  }
+
+  /** Número de ejecuciones. */
+  public long getCount() {
+    return count;
+  }
+
+  /** Número de ejecuciones que terminaron en error. */
+  public long getErrorCount() {
+    return errorCount;
+  }
+
+  /** Filas afectadas o devueltas en total. */
+  public long getRows() {
+    return rows;
+  }
+
+  public long getTotalMicros() {
+    return totalMicros;
+  }
+
+  public long getP50Micros() {
+    return p50Micros;
+  }
+
+  public long getP95Micros() {
+    return p95Micros;
+  }
+
+  public long getP99Micros() {
+    return p99Micros;
+  }
+
+  public long getMaxMicros() {
+    return maxMicros;
+  }
+
+  @Override public String toString() {
+    return sql + " count=" + count + " errors=" + errorCount + " rows=" + rows
+            + " p50=" + p50Micros + "us p95=" + p95Micros + "us p99="
+            + p99Micros + "us max=" + maxMicros + "us";
+  }
+}
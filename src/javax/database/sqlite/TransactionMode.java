@@ -0,0 +1,28 @@
+package javax.database.sqlite;
+
+/**
+ * Forma en que una transacción toma los bloqueos al empezar.
+ *
+ * @see SQLiteDatabase#runInTransaction(TransactionMode, TransactionWork)
+ */
+public enum TransactionMode {
+
+  /**
+   * Los bloqueos se toman con la primera lectura o escritura. Si dos
+   * transacciones leen y luego intentan escribir, una falla con
+   * SQLITE_BUSY sin poder esperar a la otra.
+   */
+  DEFERRED,
+
+  /**
+   * Toma el bloqueo de escritura al empezar; los lectores siguen leyendo.
+   * Recomendado para transacciones que escriben.
+   */
+  IMMEDIATE,
+
+  /**
+   * Como {@link #IMMEDIATE}; fuera del modo WAL además impide leer a las
+   * demás conexiones.
+   */
+  EXCLUSIVE
+}
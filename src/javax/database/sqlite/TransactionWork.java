@@ -0,0 +1,21 @@
+package javax.database.sqlite;
+
+import java.sql.SQLException;
+
+/**
+ * Trabajo que se ejecuta dentro de una transacción.
+ *
+ * @param <T> tipo del resultado
+ * @see SQLiteDatabase#runInTransaction(TransactionMode, TransactionWork)
+ */
+public interface TransactionWork<T> {
+
+  /**
+   * Ejecuta el trabajo. Si lanza una excepción la transacción se revierte.
+   *
+   * @param db base de datos de la transacción
+   * @return el resultado que devolverá <code>runInTransaction</code>
+   * @throws SQLException
+   */
+  T execute(SQLiteDatabase db) throws SQLException;
+}
@@ -0,0 +1,319 @@
+package javax.database.sqlite;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Cola de escrituras con un único hilo escritor que confirma varias
+ * escrituras en cada transacción (group commit).
+ *
+ * Quien llama encola el trabajo y recibe un {@link Future} que se completa
+ * cuando la transacción que lo incluye se confirma. Cada trabajo se ejecuta
+ * en su propio <code>SAVEPOINT</code>: si falla solo se revierte ese trabajo
+ * y su Future termina con la excepción. Si falla el COMMIT fallan todos los
+ * trabajos del lote.
+ *
+ * Si la cola está llena {@link #submit(TransactionWork)} espera a que haya
+ * lugar.
+ *
+ * <pre>
+ * helper.enableWriteQueue(10000, 500, 2);
+ * Future&lt;Long&gt; id = helper.getWriteQueue().insert("orders", values);
+ * </pre>
+ *
+ * @see SQLiteOpenHelper#enableWriteQueue(int, int, long)
+ */
+public class WriteQueue implements AutoCloseable {
+  private static final String TAG = "WriteQueue";
+
+  private final SQLiteOpenHelper helper;
+  private final BlockingQueue<PendingWrite<?>> queue;
+  private final int maxBatchSize;
+  private final long maxBatchDelayNanos;
+  private final Thread writer;
+  private volatile boolean closed;
+  /**
+   * Quien encola toma el de lectura y {@link #close()} el de escritura: nada
+   * se encola después de cerrar, cuando el hilo escritor ya pudo terminar.
+   */
+  private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+  private final AtomicLong batchCount = new AtomicLong();
+  private final AtomicLong writeCount = new AtomicLong();
+
+  /**
+   * @param helper de donde se obtiene la conexión de escritura
+   * @param capacity número máximo de escrituras pendientes
+   * @param maxBatchSize número máximo de escrituras por transacción
+   * @param maxBatchDelayMillis tiempo que se espera por más escrituras antes
+   * de confirmar un lote incompleto; con 0 se confirma lo que haya en cola
+   */
+  WriteQueue(SQLiteOpenHelper helper, int capacity, int maxBatchSize,
+          long maxBatchDelayMillis) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize < 1");
+    }
+    this.helper = helper;
+    this.queue = new ArrayBlockingQueue<PendingWrite<?>>(capacity);
+    this.maxBatchSize = maxBatchSize;
+    this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+    this.writer = new Thread(new Runnable() {
+      @Override public void run() {
+        drain();
+      }
+    }, "SQLiteWriteQueue");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Encola una escritura; si la cola está llena espera a que haya lugar.
+   *
+   * @param work trabajo a ejecutar en el hilo escritor
+   * @return Future que se completa al confirmarse la transacción
+   * @throws InterruptedException si se interrumpe la espera
+   * @throws RejectedExecutionException si la cola está cerrada
+   */
+  public <T> Future<T> submit(TransactionWork<T> work) throws InterruptedException {
+    PendingWrite<T> pending = new PendingWrite<T>(work);
+    closeLock.readLock().lock();
+    try {
+      if (closed) throw new RejectedExecutionException("WriteQueue is closed");
+      queue.put(pending);
+    } finally {
+      closeLock.readLock().unlock();
+    }
+    return pending;
+  }
+
+  /**
+   * Encola una escritura esperando como máximo <code>timeout</code>.
+   *
+   * @throws RejectedExecutionException si la cola sigue llena o está cerrada
+   */
+  public <T> Future<T> submit(TransactionWork<T> work, long timeout, TimeUnit unit)
+          throws InterruptedException {
+    PendingWrite<T> pending = new PendingWrite<T>(work);
+    closeLock.readLock().lock();
+    try {
+      if (closed) throw new RejectedExecutionException("WriteQueue is closed");
+      if (!queue.offer(pending, timeout, unit)) {
+        throw new RejectedExecutionException("WriteQueue is full");
+      }
+    } finally {
+      closeLock.readLock().unlock();
+    }
+    return pending;
+  }
+
+  /** Encola un insert, el Future devuelve el id de la fila. */
+  public Future<Long> insert(final String table, final Map<String, Object> values)
+          throws InterruptedException {
+    return submit(new TransactionWork<Long>() {
+      @Override public Long execute(SQLiteDatabase db) throws SQLException {
+        return db.insertWithOnConflict(table, values, "");
+      }
+    });
+  }
+
+  /** Encola una sentencia, el Future devuelve el número de filas afectadas. */
+  public Future<Integer> executeUpdate(final String sql, final Object... bindArgs)
+          throws InterruptedException {
+    return submit(new TransactionWork<Integer>() {
+      @Override public Integer execute(SQLiteDatabase db) throws SQLException {
+        return db.executeUpdate(sql, bindArgs);
+      }
+    });
+  }
+
+  /** Número de escrituras pendientes. */
+  public int getPendingCount() {
+    return queue.size();
+  }
+
+  /** Número de transacciones confirmadas. */
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  /** Número de escrituras confirmadas. */
+  public long getWriteCount() {
+    return writeCount.get();
+  }
+
+  private void drain() {
+    final List<PendingWrite<?>> batch = new ArrayList<PendingWrite<?>>(maxBatchSize);
+    try {
+      while (!closed || !queue.isEmpty()) {
+        PendingWrite<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) continue;
+        batch.add(first);
+        queue.drainTo(batch, maxBatchSize - 1);
+        final long deadline = System.nanoTime() + maxBatchDelayNanos;
+        while (batch.size() < maxBatchSize) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) break;
+          PendingWrite<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next == null) break;
+          batch.add(next);
+          queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+        commit(batch);
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Ejecuta el lote en una transacción y completa sus Futures. */
+  private void commit(final List<PendingWrite<?>> batch) {
+    SQLiteDatabase db = null;
+    try {
+      db = helper.getWritableDatabase();
+      db.runInTransaction(TransactionMode.IMMEDIATE, new TransactionWork<Void>() {
+        @Override public Void execute(SQLiteDatabase db) throws SQLException {
+          for (PendingWrite<?> pending : batch) {
+            pending.run(db);
+          }
+          return null;
+        }
+      });
+      for (PendingWrite<?> pending : batch) {
+        pending.complete();
+      }
+      batchCount.incrementAndGet();
+      writeCount.addAndGet(batch.size());
+    } catch (Throwable e) {
+      Log.e(TAG, "Error committing " + batch.size() + " writes", e);
+      for (PendingWrite<?> pending : batch) {
+        pending.fail(e);
+      }
+    } finally {
+      // Con el pool la conexión de escritura se devuelve tras cada lote.
+      if (db != null && db.pool != null) db.close();
+    }
+  }
+
+  /**
+   * Deja de aceptar escrituras, confirma las pendientes y detiene el hilo.
+   * Si se interrumpe la espera, el hilo termina las pendientes en segundo
+   * plano.
+   */
+  @Override public void close() {
+    closeLock.writeLock().lock();
+    try {
+      closed = true;
+    } finally {
+      closeLock.writeLock().unlock();
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    // Solo quedan si se interrumpió el hilo escritor.
+    PendingWrite<?> pending;
+    while ((pending = queue.poll()) != null) {
+      pending.fail(new RejectedExecutionException("WriteQueue is closed"));
+    }
+  }
+
+  /** Escritura encolada; su resultado se publica al confirmarse el lote. */
+  private static final class PendingWrite<T> implements Future<T> {
+    private final TransactionWork<T> work;
+    /** Los escribe el hilo escritor antes de completar el Future. */
+    private T result;
+    private Throwable error;
+    private boolean done;
+    private boolean cancelled;
+
+    PendingWrite(TransactionWork<T> work) {
+      this.work = work;
+    }
+
+    /** Ejecuta el trabajo en su propio savepoint. */
+    void run(SQLiteDatabase db) {
+      if (isCancelled()) return;
+      try {
+        result = db.runInTransaction(work);
+      } catch (Throwable e) {
+        error = e;
+      }
+    }
+
+    void complete() {
+      finish(error);
+    }
+
+    void fail(Throwable e) {
+      finish(error != null ? error : e);
+    }
+
+    private synchronized void finish(Throwable e) {
+      if (done) return;
+      error = e;
+      done = true;
+      notifyAll();
+    }
+
+    /**
+     * Si el trabajo aún no se ejecutó ya no se ejecutará; si ya se ejecutó
+     * se confirma igual con su lote.
+     */
+    @Override public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+      if (done) return false;
+      cancelled = true;
+      done = true;
+      notifyAll();
+      return true;
+    }
+
+    @Override public synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override public synchronized boolean isDone() {
+      return done;
+    }
+
+    @Override public synchronized T get()
+            throws InterruptedException, ExecutionException {
+      while (!done) {
+        wait();
+      }
+      return report();
+    }
+
+    @Override public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+      final long deadline = System.nanoTime() + unit.toNanos(timeout);
+      while (!done) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) throw new TimeoutException();
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return report();
+    }
+
+    private T report() throws ExecutionException {
+      if (cancelled) throw new CancellationException();
+      if (error != null) throw new ExecutionException(error);
+      return result;
+    }
+  }
+}